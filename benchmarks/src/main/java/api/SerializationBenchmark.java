@@ -0,0 +1,54 @@
+package api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.Game;
+import model.GameStatus;
+import model.Move;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Jackson serialization of the game and move lists returned by the endpoints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+  @Param({"10", "100", "1000"})
+  private int size;
+
+  private ObjectMapper objectMapper;
+  private List<Game> games;
+  private List<Move> moves;
+
+  @Setup
+  public void setUp() {
+    objectMapper = new ObjectMapper();
+    games = new ArrayList<>();
+    moves = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      games.add(new Game(i, "player" + i, "opponent" + i, GameStatus.values()[i % 4]));
+      Move move = new Move("e2", "e4", "");
+      move.setId(i);
+      moves.add(move);
+    }
+  }
+
+  @Benchmark
+  public byte[] serializeGames() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(games);
+  }
+
+  @Benchmark
+  public byte[] serializeMoves() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(moves);
+  }
+}
@@ -0,0 +1,51 @@
+package dao;
+
+import exception.game.GameException;
+import model.Game;
+import model.GameFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures game history lookups as the total number of games on the server grows.
+ * Games are spread evenly over playerCount players.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameDaoBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  private int historySize;
+
+  @Param({"1000"})
+  private int playerCount;
+
+  @Param({"100"})
+  private int pageSize;
+
+  private GameDao gameDao;
+
+  @Setup
+  public void setUp() throws GameException {
+    gameDao = new GameDao();
+    for (int i = 0; i < historySize; i++) {
+      gameDao.createGame("player" + i % playerCount, "player" + (i + 1) % playerCount);
+    }
+  }
+
+  @Benchmark
+  public List<Game> getUserGames() {
+    return gameDao.getUserGames("player0");
+  }
+
+  @Benchmark
+  public List<Game> getUserGamesPage() {
+    return gameDao.getUserGames("player0", GameFilter.PLAYING, -1, pageSize);
+  }
+}
@@ -0,0 +1,79 @@
+package dao;
+
+import exception.game.GameNotFoundException;
+import model.Move;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding and reading moves, in memory and with each journal durability level.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveDaoBenchmark {
+
+  private static final String MEMORY = "MEMORY";
+
+  @Param({"40", "200"})
+  private int movesPerGame;
+
+  @Param({MEMORY, "NONE", "ASYNC", "GROUP_COMMIT"})
+  private String storage;
+
+  @Param({"10"})
+  private long flushIntervalMillis;
+
+  private Path directory;
+  private MoveJournal journal;
+  private MoveDao moveDao;
+  private Move[] moves;
+  private int nextMove;
+
+  @Setup
+  public void setUp() throws IOException, GameNotFoundException {
+    if (!MEMORY.equals(storage)) {
+      directory = Files.createTempDirectory("move-journal-benchmark");
+      journal = new MoveJournal(directory, 64 * 1024 * 1024, MoveJournal.Durability.valueOf(storage),
+              flushIntervalMillis);
+    }
+    moveDao = new MoveDao(journal);
+    moves = new Move[] {new Move("e2", "e4", ""), new Move("e7", "e5", ""), new Move("g1", "f3", ""),
+            new Move("b8", "c6", "")};
+    for (int i = 0; i < movesPerGame; i++) {
+      moveDao.addMove(0, moves[i % moves.length]);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    if (journal != null) {
+      journal.close();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (Path segment : stream) {
+          Files.delete(segment);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  @Benchmark
+  public void addMove() throws GameNotFoundException {
+    moveDao.addMove(1, moves[nextMove++ & 3]);
+  }
+
+  @Benchmark
+  public List<Move> getMovesForGame() throws GameNotFoundException {
+    return moveDao.getMovesForGame(0);
+  }
+}
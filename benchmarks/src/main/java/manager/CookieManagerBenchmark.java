@@ -0,0 +1,43 @@
+package manager;
+
+import dao.GameDao;
+import dao.UserDao;
+import exception.game.GameException;
+import exception.user.UserException;
+import model.Game;
+import model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of authenticating a move request, which validates a user and a game cookie.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CookieManagerBenchmark {
+
+  private CookieManager cookieManager;
+  private String userCookie;
+  private String gameCookie;
+
+  @Setup
+  public void setUp() throws UserException, GameException {
+    UserDao userDao = UserDao.getInstance();
+    GameDao gameDao = GameDao.getInstance();
+    userDao.addUser(new User("benchmark", "password", "email"));
+    Game game = gameDao.createGame("benchmark", "opponent");
+    cookieManager = new CookieManager(userDao, gameDao);
+    userCookie = cookieManager.makeUserCookie("benchmark");
+    gameCookie = cookieManager.makeGameCookie(game.getGameId());
+  }
+
+  @Benchmark
+  public void validateCookies() throws UserException, GameException {
+    cookieManager.validateCookies(userCookie, gameCookie);
+  }
+}
@@ -0,0 +1,83 @@
+package manager;
+
+import exception.user.UserNotFoundException;
+import model.DHParams;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Diffie-Hellman work done by /crypt/init for returning and first-time users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncryptionManagerBenchmark {
+
+  @Param({"6"})
+  private int windowBits;
+
+  private EncryptionManager encryptionManager;
+  private BigInteger g;
+  private BigInteger p;
+  private BigInteger exponent;
+  private FixedBaseModExp generatorPowers;
+  private byte[] encryptedPassword;
+  private long newUsers;
+
+  @Setup
+  public void setUp() throws UserNotFoundException, GeneralSecurityException {
+    encryptionManager = new EncryptionManager();
+    DHParams params = encryptionManager.getPublicParameters("benchmark");
+    g = params.getParams().getG();
+    p = params.getParams().getP();
+    exponent = BigInteger.probablePrime(p.bitLength(), new SecureRandom());
+    generatorPowers = new FixedBaseModExp(g, p, p.bitLength(), windowBits);
+    generatorPowers.precompute();
+
+    BigInteger clientExponent = new BigInteger(p.bitLength() - 1, new SecureRandom());
+    encryptionManager.generateSharedKey("benchmark",
+            new DHParams(params.getParams(), g.modPow(clientExponent, p).toByteArray()));
+    byte[] sharedKey = Arrays.copyOf(new BigInteger(params.getPublicParam()).modPow(clientExponent, p).toByteArray(), 16);
+    Cipher cipher = Cipher.getInstance(EncryptionManager.ENCRYPTION_MODE);
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(sharedKey, EncryptionManager.ENCRYPTION_ALGORITHM),
+            encryptionManager.parameterSpec);
+    encryptedPassword = cipher.doFinal("password".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public DHParams getPublicParameters() {
+    return encryptionManager.getPublicParameters("benchmark");
+  }
+
+  @Benchmark
+  public DHParams getPublicParametersForNewUser() {
+    return encryptionManager.getPublicParameters("user" + newUsers++);
+  }
+
+  @Benchmark
+  public BigInteger modExp() {
+    return encryptionManager.modExp(g, exponent, p);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public String decryptPassword() throws UserNotFoundException {
+    return encryptionManager.decryptPassword("benchmark", encryptedPassword);
+  }
+
+  @Benchmark
+  public BigInteger fixedBasePow() {
+    return generatorPowers.pow(exponent);
+  }
+}
@@ -0,0 +1,23 @@
+package manager;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a cold EncryptionManager takes to become ready, which bounds the first /crypt/init
+ * after a deploy. Every fork measures the first construction in a fresh JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class EncryptionManagerStartupBenchmark {
+
+  @Benchmark
+  public EncryptionManager coldStart() {
+    return new EncryptionManager(new MetricsManager(), 1);
+  }
+}
@@ -0,0 +1,59 @@
+package manager;
+
+import exception.user.UserNotFoundException;
+import model.DHParams;
+import model.ECDHParams;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the server-side cost of a complete key exchange (/crypt/init then /crypt/end for a new user)
+ * between the finite-field Diffie-Hellman and the ECDH P-256 modes. Key pairs come from the pools as in
+ * production, so sustained handshake rates above the pools' refill rate include inline key generation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandshakeBenchmark {
+
+  private EncryptionManager encryptionManager;
+  private DHParams clientDhParams;
+  private ECDHParams clientEcdhParams;
+  private long users;
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    encryptionManager = new EncryptionManager();
+    DHParams serverParams = encryptionManager.getPublicParameters("setup");
+    BigInteger p = serverParams.getParams().getP();
+    BigInteger clientExponent = new BigInteger(p.bitLength() - 1, new SecureRandom());
+    clientDhParams = new DHParams(serverParams.getParams(),
+            serverParams.getParams().getG().modPow(clientExponent, p).toByteArray());
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec(EncryptionManager.EC_CURVE));
+    clientEcdhParams = new ECDHParams(EncryptionManager.EC_CURVE, generator.generateKeyPair().getPublic().getEncoded());
+  }
+
+  @Benchmark
+  public void dh() throws UserNotFoundException {
+    String username = "user" + users++;
+    encryptionManager.getPublicParameters(username);
+    encryptionManager.generateSharedKey(username, clientDhParams);
+  }
+
+  @Benchmark
+  public void ecdh() throws UserNotFoundException {
+    String username = "user" + users++;
+    encryptionManager.getEcdhParameters(username);
+    encryptionManager.generateEcdhSharedKey(username, clientEcdhParams);
+  }
+}
@@ -0,0 +1,92 @@
+package manager;
+
+import dao.UserDao;
+import exception.game.GameException;
+import exception.user.UserException;
+import facade.GameFacade;
+import model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures random-game matchmaking under many concurrent callers.
+ * match pairs through the shared MatchmakingManager; lockedQueue is the queue it replaced, made thread-safe with
+ * a lock; createRandomGame is the whole /games/create path, including the game creation and pushes of a match.
+ * Run with e.g. {@code -t 2000} to simulate thousands of concurrent callers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(64)
+@Fork(1)
+public class MatchmakingBenchmark {
+
+  private static final int USERS_PER_THREAD = 4;
+
+  private MatchmakingManager matchmakingManager;
+  private Queue<String> lockedQueue;
+  private GameFacade gameFacade;
+  private AtomicInteger threads;
+
+  @Setup
+  public void setUp() {
+    matchmakingManager = new MatchmakingManager(new MetricsManager(), UserDao.getInstance());
+    lockedQueue = new LinkedList<>();
+    gameFacade = new GameFacade();
+    threads = new AtomicInteger();
+  }
+
+  @State(Scope.Thread)
+  public static class Caller {
+
+    private String[] usernames;
+    private String[] cookies;
+    private int next;
+
+    @Setup
+    public void setUp(MatchmakingBenchmark benchmark) throws UserException {
+      int thread = benchmark.threads.getAndIncrement();
+      usernames = new String[USERS_PER_THREAD];
+      cookies = new String[USERS_PER_THREAD];
+      for (int i = 0; i < USERS_PER_THREAD; i++) {
+        usernames[i] = "caller" + thread + "-" + i;
+        UserDao.getInstance().addUser(new User(usernames[i], "password", "email"));
+        cookies[i] = CookieManager.getInstance().makeUserCookie(usernames[i]);
+      }
+    }
+
+    int nextUser() {
+      next = (next + 1) % USERS_PER_THREAD;
+      return next;
+    }
+  }
+
+  @Benchmark
+  public String match(Caller caller) throws UserException {
+    return matchmakingManager.match(caller.usernames[caller.nextUser()]);
+  }
+
+  @Benchmark
+  public String lockedQueue(Caller caller) {
+    String username = caller.usernames[caller.nextUser()];
+    synchronized (lockedQueue) {
+      if (!lockedQueue.isEmpty()) {
+        return lockedQueue.poll();
+      }
+      lockedQueue.add(username);
+      return null;
+    }
+  }
+
+  @Benchmark
+  public void createRandomGame(Caller caller) throws GameException, UserException {
+    int user = caller.nextUser();
+    gameFacade.createRandomGame(caller.usernames[user], caller.cookies[user]);
+  }
+}
@@ -0,0 +1,71 @@
+package manager;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.Game;
+import model.GameStatus;
+import model.Move;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding a push frame in the binary format against the JSON array it replaced.
+ * The frame holds a game, its cookie and the given number of moves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PushFrameBenchmark {
+
+  @Param({"1", "16"})
+  private int moves;
+
+  private ObjectMapper objectMapper;
+  private List<Object> data;
+  private List<PushEvent> events;
+  private DirectBufferPool pool;
+
+  @Setup
+  public void setUp() {
+    objectMapper = new ObjectMapper();
+    pool = new DirectBufferPool(4096, 1);
+    data = new ArrayList<>();
+    data.add(new Game(12345, "player1", "player2", GameStatus.PLAYING));
+    data.add("12345:kf8s0a1:7hPZr0cX5m2QvJ1yLk9sTg4wN3bA6eUdRfGiOqHjM8E");
+    for (int i = 0; i < moves; i++) {
+      Move move = new Move("e2", "e4", "");
+      move.setGameId(12345);
+      move.setId(i);
+      data.add(move);
+    }
+    events = new ArrayList<>();
+    long sequence = System.currentTimeMillis() * 1000;
+    for (Object event : data) {
+      events.add(new PushEvent(sequence++, event));
+    }
+  }
+
+  @Benchmark
+  public int binary() {
+    ByteBuffer frame = pool.acquire();
+    PushFrameEncoder.encode(events, frame);
+    int length = frame.position();
+    pool.release(frame);
+    return length;
+  }
+
+  @Benchmark
+  public int json() throws JsonProcessingException {
+    byte[] json = objectMapper.writeValueAsBytes(data);
+    ByteBuffer frame = ByteBuffer.allocate(4 + json.length);
+    frame.putInt(json.length).put(json);
+    return frame.position();
+  }
+}
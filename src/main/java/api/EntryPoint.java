@@ -2,10 +2,13 @@ package api;
 
 
 import exception.ServerException;
+import exception.user.UserException;
 import exception.user.UserNotFoundException;
+import manager.CookieManager;
 import manager.EncryptionManager;
 import manager.ClientConnectionManager;
 import model.DHParams;
+import model.ECDHParams;
 import model.ConnectionInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,6 +16,12 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 @RestController
 @EnableAutoConfiguration
 public class EntryPoint {
@@ -21,9 +30,13 @@ public class EntryPoint {
 
   private final ClientConnectionManager clientConnectionManager;
   private final EncryptionManager encryptionManager;
+  private final CookieManager cookieManager;
 
   final static String USER_COOKIE = "userCookie";
   final static String GAME_COOKIE = "gameCookie";
+  private final static String ECDH_MODE = "mode=ecdh";
+  private final static String EVENT_STREAM = "text/event-stream";
+  private final static String LAST_EVENT_ID = "Last-Event-ID";
 
   /**
    * Default constructor.
@@ -32,6 +45,7 @@ public class EntryPoint {
   public EntryPoint() {
     clientConnectionManager = ClientConnectionManager.getInstance();
     encryptionManager = EncryptionManager.getInstance();
+    cookieManager = CookieManager.getInstance();
   }
 
   /**
@@ -39,10 +53,13 @@ public class EntryPoint {
    *
    * @param clientConnectionManager ClientConnectionManager to use.
    * @param encryptionManager EncryptionManager to use.
+   * @param cookieManager CookieManager to use.
    */
-  EntryPoint(ClientConnectionManager clientConnectionManager, EncryptionManager encryptionManager) {
+  EntryPoint(ClientConnectionManager clientConnectionManager, EncryptionManager encryptionManager,
+             CookieManager cookieManager) {
     this.clientConnectionManager = clientConnectionManager;
     this.encryptionManager = encryptionManager;
+    this.cookieManager = cookieManager;
   }
 
   /**
@@ -63,6 +80,37 @@ public class EntryPoint {
     }
   }
 
+  /**
+   * Streams the events of the user as Server-Sent Events, for clients that can't accept the inbound connection
+   * set up by /connection/{username}. The request is processed asynchronously, so waiting clients don't hold
+   * a container thread. Replaces any connection the user already had.
+   * A client reconnecting with the Last-Event-ID header, as EventSource does, is first sent the events it missed.
+   * If cookie is invalid (Status Code 403).
+   *
+   * @param cookie userCookie of the user opening the stream.
+   * @param lastEventId id of the last event the client received, or null for a new client.
+   * @throws UserException when user cookie is not valid or user is not found.
+   * @throws IOException if the response can't be started.
+   */
+  @RequestMapping(value="events", method=RequestMethod.GET)
+  void streamEvents(@RequestParam(USER_COOKIE) String cookie,
+                    @RequestHeader(value=LAST_EVENT_ID, required=false) Long lastEventId,
+                    HttpServletRequest request, HttpServletResponse response) throws UserException, IOException {
+    try {
+      LOGGER.info("/events GET hit with cookie {} after {}", cookie, lastEventId);
+      cookieManager.validateUserCookie(cookie);
+      response.setContentType(EVENT_STREAM);
+      response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+      response.setHeader("Cache-Control", "no-cache");
+      response.flushBuffer();
+      AsyncContext asyncContext = request.startAsync(request, response);
+      clientConnectionManager.setUpStream(cookieManager.getQualifier(cookie), asyncContext, lastEventId);
+    } catch (RuntimeException e) {
+      LOGGER.error("Error in /events GET {}", e);
+      throw new ServerException(e);
+    }
+  }
+
   /**
    * Sends initial Diffie-Hellman parameters to the user.
    * Also creates the public key that will be associated with the user.
@@ -99,8 +147,46 @@ public class EntryPoint {
     }
   }
 
+  /**
+   * Sends the server's elliptic-curve Diffie-Hellman (P-256) public key to the user.
+   * Clients opt into this mode instead of the finite-field exchange with mode=ecdh.
+   *
+   * @param username non-null string of the user who is requesting the key.
+   * @return curve and public key of the server.
+   */
+  @RequestMapping(value="crypt/init/{username}", method=RequestMethod.GET, params=ECDH_MODE)
+  ECDHParams sendEcdhParameters(@PathVariable String username) {
+    try {
+      LOGGER.info("/crypt/init/{username} GET hit in ECDH mode with username {}", username);
+      return encryptionManager.getEcdhParameters(username);
+    } catch (RuntimeException e) {
+      LOGGER.error("Error in /crypt/init/{username} GET {}", e);
+      throw new ServerException(e);
+    }
+  }
+
+  /**
+   * Creates shared key based on the elliptic-curve public key given in the body.
+   *
+   * @param username non-null string of the user who is requesting ECDH.
+   * @param parameters curve and public key of the user.
+   * @throws UserNotFoundException if user hasn't requested the server's public key.
+   */
+  @RequestMapping(value="crypt/end/{username}", method=RequestMethod.POST, params=ECDH_MODE)
+  void setUpEcdhSharedKey(@PathVariable String username, @RequestBody ECDHParams parameters)
+          throws UserNotFoundException {
+    try {
+      LOGGER.info("/crypt/end/{username} POST hit in ECDH mode with username {}", username);
+      encryptionManager.generateEcdhSharedKey(username, parameters);
+    } catch (RuntimeException e) {
+      LOGGER.error("Error in /crypt/end/{username} POST {}", e);
+      throw new ServerException(e);
+    }
+  }
+
   public static void main(String[] args) throws Exception {
-    Object[] sources = {EntryPoint.class, UserEndpoint.class, GameEndpoint.class, MoveEndpoint.class};
+    Object[] sources = {EntryPoint.class, UserEndpoint.class, GameEndpoint.class, MoveEndpoint.class,
+            MetricsEndpoint.class};
     LOGGER.info("Starting server with following classes: {}", sources);
     SpringApplication.run(sources, args);
   }
@@ -8,6 +8,7 @@ import exception.user.UserNotFoundException;
 import facade.GameFacade;
 import manager.CookieManager;
 import model.Game;
+import model.GameFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
@@ -24,6 +25,13 @@ class GameEndpoint {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(GameEndpoint.class);
 
+  private static final String STATUS = "status";
+  private static final String AFTER = "after";
+  private static final String LIMIT = "limit";
+  private static final String FIRST_PAGE = "-1";
+  private static final String DEFAULT_PAGE_SIZE = "100";
+  static final int MAX_PAGE_SIZE = 1000;
+
   private final GameFacade gameFacade;
   private final CookieManager cookieManager;
 
@@ -47,20 +55,28 @@ class GameEndpoint {
   }
 
   /**
-   * Returns all games a user has played in.
+   * Returns one page of the games a user has played in, oldest first.
+   * The next page is requested by passing the id of the last game received as after.
    *
    * @param username non-null string of the user to get games for.
+   * @param status ALL, PLAYING or FINISHED; defaults to ALL.
+   * @param after id of the last game of the previous page; the first page when omitted.
+   * @param limit maximum number of games to return, capped at MAX_PAGE_SIZE; defaults to 100.
    * @param cookie userCookie of the user requesting the games.
-   * @return list of all games the user had been in.
+   * @return page of the games the user had been in.
    * @throws InvalidUserCookieException if user cookie is invalid.
    * @throws UserNotFoundException when user does not exist.
    */
   @RequestMapping(value="{username}", method=RequestMethod.GET)
-  List<Game> getUserGames(@PathVariable String username, @RequestParam(USER_COOKIE) String cookie)
-          throws UserException {
+  List<Game> getUserGames(@PathVariable String username,
+                          @RequestParam(value=STATUS, defaultValue="ALL") GameFilter status,
+                          @RequestParam(value=AFTER, defaultValue=FIRST_PAGE) int after,
+                          @RequestParam(value=LIMIT, defaultValue=DEFAULT_PAGE_SIZE) int limit,
+                          @RequestParam(USER_COOKIE) String cookie) throws UserException {
     try {
-      LOGGER.info("/games/{username} GET hit by {} with cookie {}", username, cookie);
-      return gameFacade.getUserGames(username, cookie);
+      LOGGER.info("/games/{username} GET hit by {} with status {}, after {}, limit {} and cookie {}",
+              username, status, after, limit, cookie);
+      return gameFacade.getUserGames(username, status, after, Math.min(limit, MAX_PAGE_SIZE), cookie);
     }
     catch (RuntimeException e) {
       LOGGER.error("Error in /games/{username} GET {}", e);
@@ -88,6 +104,26 @@ class GameEndpoint {
     }
   }
 
+  /**
+   * Stops the user from waiting for a random game.
+   *
+   * @param cookie userCookie of the user that no longer wants a game.
+   * @return true if the user was waiting, false if it wasn't or has just been matched.
+   * @throws InvalidUserCookieException if user cookie is invalid.
+   * @throws UserNotFoundException when user does not exist.
+   */
+  @RequestMapping(value="create", method=RequestMethod.DELETE)
+  boolean cancelRandomGame(@RequestParam(USER_COOKIE) String cookie) throws UserException {
+    try {
+      LOGGER.info("/games/create DELETE hit with cookie {}", cookie);
+      return gameFacade.cancelRandomGame(cookieManager.getQualifier(cookie), cookie);
+    }
+    catch (RuntimeException e) {
+      LOGGER.error("Error in /games/create DELETE {}", e);
+      throw new ServerException(e);
+    }
+  }
+
   /**
    * Creates a new game between the user requesting the game and the other player.
    *
@@ -0,0 +1,54 @@
+package api;
+
+import exception.ServerException;
+import manager.MetricsManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@EnableAutoConfiguration
+class MetricsEndpoint {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MetricsEndpoint.class);
+
+  private final MetricsManager metricsManager;
+
+  /**
+   * Default Constructor.
+   */
+  @SuppressWarnings ("unused")
+  public MetricsEndpoint() {
+    metricsManager = MetricsManager.getInstance();
+  }
+
+  /**
+   * Constructor for unit-testing.
+   *
+   * @param metricsManager MetricsManager to read from.
+   */
+  MetricsEndpoint(MetricsManager metricsManager) {
+    this.metricsManager = metricsManager;
+  }
+
+  /**
+   * Reports the current value of every server metric.
+   *
+   * @return metric values keyed by name.
+   */
+  @RequestMapping(value="metrics", method=RequestMethod.GET)
+  Map<String, Number> getMetrics() {
+    try {
+      LOGGER.info("/metrics GET hit");
+      return metricsManager.getMetrics();
+    } catch (RuntimeException e) {
+      LOGGER.error("Error in /metrics GET {}", e);
+      throw new ServerException(e);
+    }
+  }
+}
@@ -22,6 +22,10 @@ class MoveEndpoint {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(MoveEndpoint.class);
 
+  private static final String AFTER = "after";
+  private static final String LIMIT = "limit";
+  private static final String NO_MOVES = "-1";
+
   private final MoveFacade moveFacade;
 
   /**
@@ -42,19 +46,27 @@ class MoveEndpoint {
   }
 
   /**
-   * Retrieves the list of all moves currently in the game.
+   * Retrieves the moves currently in the game.
+   * Polling clients pass the id of the last move they have as after to only receive newer moves.
    *
    * @param gameId positive integer id of the game to add the move to.
+   * @param after id of the last move the client already has; all moves are returned when omitted.
+   * @param limit maximum number of moves to return; unlimited when omitted.
    * @param userCookie cookie of the user (used for verification).
    * @param gameCookie cookie of the game (used for verification).
    * @return List of moves for the game requested.
    * @throws GameNotFoundException if the game with the given id given does not exist.
    */
   @RequestMapping(value="{gameId}", method=RequestMethod.GET)
-  List<Move> getMovesForGame(@PathVariable int gameId, @RequestParam(USER_COOKIE) String userCookie,
-                                    @RequestParam(GAME_COOKIE) String gameCookie) throws GameException, UserException {
-    LOGGER.info("Requesting moves for game {} with user cookie {} and game cookie {}", gameId, userCookie, gameCookie);
-    return moveFacade.getMovesForGame(gameId, userCookie, gameCookie);
+  List<Move> getMovesForGame(@PathVariable int gameId,
+                             @RequestParam(value=AFTER, defaultValue=NO_MOVES) int after,
+                             @RequestParam(value=LIMIT, required=false) Integer limit,
+                             @RequestParam(USER_COOKIE) String userCookie,
+                             @RequestParam(GAME_COOKIE) String gameCookie) throws GameException, UserException {
+    LOGGER.info("Requesting moves after {} limited to {} for game {} with user cookie {} and game cookie {}",
+            after, limit, gameId, userCookie, gameCookie);
+    return moveFacade.getMovesForGame(gameId, after, limit == null ? Integer.MAX_VALUE : limit,
+            userCookie, gameCookie);
   }
 
   /**
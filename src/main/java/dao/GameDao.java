@@ -3,44 +3,80 @@ package dao;
 import exception.game.GameException;
 import exception.game.GameNotFoundException;
 import model.Game;
+import model.GameFilter;
 import model.GameStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class GameDao {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(GameDao.class);
 
+  private final int firstGameId;
   private final List<Game> games;
+  private final Map<String, PlayerGameIndex> gamesByPlayer;
 
   private static GameDao instance;
 
   GameDao() {
+    this(0);
+  }
+
+  /**
+   * Creates a GameDao whose games are numbered from the given id. Games aren't persisted but their moves may be,
+   * so games are numbered past those whose moves were recovered, which a new game would otherwise inherit.
+   *
+   * @param firstGameId id of the first game created.
+   */
+  GameDao(int firstGameId) {
+    this.firstGameId = firstGameId;
     games = new ArrayList<>();
+    gamesByPlayer = new ConcurrentHashMap<>();
   }
 
   public static GameDao getInstance() {
     if (instance == null) {
-      instance = new GameDao();
+      instance = new GameDao(MoveDao.getInstance().nextGameId());
     }
     return instance;
   }
   
   /**
    * Gets all games that a player has played in (regardless of status).
+   * Served from the per-player index so the cost depends only on how many games the player has.
    *
    * @param username non-null string of the user who you want games for.
    * @return List of games the user has played in.
    */
   public List<Game> getUserGames(String username) {
-    LOGGER.info("Getting all games for {}", username);
+    return getUserGames(username, GameFilter.ALL, -1, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Gets one page of the games a player has played in, oldest first.
+   *
+   * @param username non-null string of the user who you want games for.
+   * @param filter non-null filter on the status of the games.
+   * @param after id of the last game of the previous page, or -1 for the first page.
+   * @param limit maximum number of games to return.
+   * @return at most limit games matching the filter whose ids are greater than after.
+   */
+  public List<Game> getUserGames(String username, GameFilter filter, int after, int limit) {
+    LOGGER.info("Getting at most {} {} games after {} for {}", limit, filter, after, username);
     List<Game> result = new ArrayList<>();
-    for (Game game : games) {
-      if (game.getPlayer1().equals(username) || game.getPlayer2().equals(username)) {
-        result.add(game);
+    PlayerGameIndex index = gamesByPlayer.get(username);
+    if (index == null) {
+      return result;
+    }
+    List<Integer> gameIds = index.page(filter, after, limit);
+    synchronized (games) {
+      for (int gameId : gameIds) {
+        result.add(games.get(gameId - firstGameId));
       }
     }
     return result;
@@ -59,11 +95,48 @@ public class GameDao {
     if (player1.equals(player2)) {
       throw new GameException("Can't have a game with the same player twice.");
     }
-    Game game = new Game(games.size(), player1, player2, GameStatus.PLAYING);
-    games.add(game);
+    Game game;
+    synchronized (games) {
+      game = new Game(firstGameId + games.size(), player1, player2, GameStatus.PLAYING);
+      games.add(game);
+      indexGame(player1, game);
+      indexGame(player2, game);
+    }
     return game;
   }
 
+  /**
+   * Creates a game for each pair of players under a single lock, so a batch of matches doesn't contend with
+   * request threads once per game. Nothing is created if any pair is invalid.
+   *
+   * @param players non-null list of an even number of usernames; players 2i and 2i + 1 play game i.
+   * @throws GameException if a game has the same player twice.
+   * @return Created games, in the order of the pairs.
+   */
+  public List<Game> createGames(List<String> players) throws GameException {
+    LOGGER.info("Creating {} games", players.size() / 2);
+    if (players.size() % 2 != 0) {
+      throw new GameException("Can't create a game with a single player.");
+    }
+    for (int i = 0; i < players.size(); i += 2) {
+      if (players.get(i).equals(players.get(i + 1))) {
+        throw new GameException("Can't have a game with the same player twice.");
+      }
+    }
+    List<Game> created = new ArrayList<>(players.size() / 2);
+    synchronized (games) {
+      for (int i = 0; i < players.size(); i += 2) {
+        Game game = new Game(firstGameId + games.size(), players.get(i), players.get(i + 1),
+                GameStatus.PLAYING);
+        games.add(game);
+        indexGame(game.getPlayer1(), game);
+        indexGame(game.getPlayer2(), game);
+        created.add(game);
+      }
+    }
+    return created;
+  }
+
   /**
    * Updates the game status of the given game-id.
    *
@@ -73,10 +146,10 @@ public class GameDao {
    */
   public void updateGame(int gameId, GameStatus status) throws GameNotFoundException {
     LOGGER.info("Updating game status of {} to {}", gameId, status);
-    if (gameId >= games.size()) {
-      throw new GameNotFoundException("Game does not exist");
-    }
-    games.get(gameId).setStatus(status);
+    Game game = getGame(gameId);
+    game.setStatus(status);
+    gamesByPlayer.get(game.getPlayer1()).updateStatus(gameId, status);
+    gamesByPlayer.get(game.getPlayer2()).updateStatus(gameId, status);
   }
 
   /**
@@ -88,9 +161,20 @@ public class GameDao {
    */
   public Game getGame(int gameId) throws GameNotFoundException {
     LOGGER.info("Getting game {}", gameId);
-    if (gameId >= games.size()) {
-      throw new GameNotFoundException("Game does not exist");
+    synchronized (games) {
+      int index = gameId - firstGameId;
+      if (index < 0 || index >= games.size()) {
+        throw new GameNotFoundException("Game does not exist");
+      }
+      return games.get(index);
     }
-    return games.get(gameId);
+  }
+
+  /**
+   * Indexes a game for one of its players. Called under the games lock, so a game can't be found by id before its
+   * players' indexes have it, and an index never holds an id that isn't in the games list yet.
+   */
+  private void indexGame(String player, Game game) {
+    gamesByPlayer.computeIfAbsent(player, key -> new PlayerGameIndex()).add(game.getGameId(), game.getStatus());
   }
 }
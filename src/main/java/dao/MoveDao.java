@@ -1,10 +1,13 @@
 package dao;
 
+import exception.ServerException;
 import exception.game.GameNotFoundException;
 import model.Move;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,23 +15,70 @@ public class MoveDao {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(MoveDao.class);
 
-  private final List<List<Move>> games;
+  static final String JOURNAL_DIRECTORY_PROPERTY = "chess.moves.journal.dir";
+  static final String JOURNAL_DURABILITY_PROPERTY = "chess.moves.journal.durability";
+  static final String JOURNAL_SEGMENT_SIZE_PROPERTY = "chess.moves.journal.segmentSize";
+  static final String JOURNAL_FLUSH_INTERVAL_PROPERTY = "chess.moves.journal.flushIntervalMillis";
+
+  private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+  private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+
+  private final List<PackedMoves> games;
+  private final MoveJournal journal;
 
   private static MoveDao instance;
 
   MoveDao() {
+    this(null);
+  }
+
+  /**
+   * Creates a MoveDao that persists its moves in the given journal.
+   * Moves already in the journal are replayed before the constructor returns.
+   *
+   * @param journal journal to replay and append to, or null to keep moves in memory only.
+   */
+  MoveDao(MoveJournal journal) {
     games = new ArrayList<>();
+    this.journal = journal;
+    if (journal != null) {
+      try {
+        journal.recover(this::addToGame);
+      }
+      catch (IOException e) {
+        LOGGER.error("Could not recover moves from the journal {}", e);
+        throw new ServerException(e);
+      }
+    }
   }
 
-  public static MoveDao getInstance() {
+  /**
+   * Gets the process-wide instance. Synchronized because it opens the journal: two instances would map the same
+   * segments and append over each other.
+   *
+   * @return the shared MoveDao.
+   */
+  public static synchronized MoveDao getInstance() {
     if (instance == null) {
-      instance = new MoveDao();
+      instance = new MoveDao(openJournal());
     }
     return instance;
   }
 
+  /**
+   * Gets the id the next game has to start from so that it doesn't inherit moves replayed from the journal.
+   *
+   * @return one more than the id of the last game that has moves.
+   */
+  public int nextGameId() {
+    synchronized (games) {
+      return games.size();
+    }
+  }
+
   /**
    * Gets all moves for a specified game.
+   * Moves are stored packed and decoded into new Move objects on every call.
    *
    * @param gameId non-negative integer corresponding to the game.
    * @return list of all moves for the requested game.
@@ -36,12 +86,36 @@ public class MoveDao {
    */
   public List<Move> getMovesForGame(int gameId) throws GameNotFoundException {
     LOGGER.info("Retrieving moves for game: {}", gameId);
-    checkGameExists(gameId);
-    return games.get(gameId);
+    synchronized (games) {
+      checkGameExists(gameId, games.size() - 1);
+      PackedMoves moves = games.get(gameId);
+      return moves.decode(gameId, 0, moves.size());
+    }
+  }
+
+  /**
+   * Gets the moves of a game played after the given ply, so polling clients only fetch what they miss.
+   *
+   * @param gameId non-negative integer corresponding to the game.
+   * @param after id of the last move the caller already has, or -1 to start from the first move.
+   * @param limit maximum number of moves to return.
+   * @return at most limit moves whose ids are greater than after, in play order.
+   * @throws GameNotFoundException when the game does not exist.
+   */
+  public List<Move> getMovesForGame(int gameId, int after, int limit) throws GameNotFoundException {
+    LOGGER.info("Retrieving at most {} moves after {} for game: {}", limit, after, gameId);
+    synchronized (games) {
+      checkGameExists(gameId, games.size() - 1);
+      PackedMoves moves = games.get(gameId);
+      int from = after >= moves.size() - 1 ? moves.size() : Math.max(0, after + 1);
+      int to = from + Math.min(Math.max(0, limit), moves.size() - from);
+      return moves.decode(gameId, from, to);
+    }
   }
 
   /**
    * Adds a move to the specified game.
+   * In persistent mode the move is appended to the journal before it becomes visible.
    *
    * @param gameId non-negative integer corresponding to the game.
    * @param move non-null Move object to be added.
@@ -49,16 +123,50 @@ public class MoveDao {
    */
   public void addMove(int gameId, Move move) throws GameNotFoundException {
     LOGGER.info("Adding move {} to game {}", move, gameId);
-    checkGameExists(gameId);
+    long ticket = 0;
+    synchronized (games) {
+      checkGameExists(gameId, games.size());
+      if (journal != null) {
+        try {
+          ticket = journal.append(gameId, move);
+        }
+        catch (IOException e) {
+          LOGGER.error("Could not append move to the journal {}", e);
+          throw new ServerException(e);
+        }
+      }
+      addToGame(gameId, move);
+    }
+    if (journal != null) {
+      journal.awaitDurable(ticket);
+    }
+  }
+
+  private void addToGame(int gameId, Move move) {
     if (gameId == games.size()) {
-      games.add(new ArrayList<>());
+      games.add(new PackedMoves());
     }
     games.get(gameId).add(move);
   }
 
-  private void checkGameExists(int gameId) throws GameNotFoundException {
-    if (gameId > games.size() || gameId < 0) {
+  private void checkGameExists(int gameId, int lastGameId) throws GameNotFoundException {
+    if (gameId > lastGameId || gameId < 0) {
       throw new GameNotFoundException(String.format("Game %s not found", gameId));
     }
   }
+
+  private static MoveJournal openJournal() {
+    String directory = System.getProperty(JOURNAL_DIRECTORY_PROPERTY);
+    if (directory == null) {
+      return null;
+    }
+    MoveJournal.Durability durability = MoveJournal.Durability.valueOf(
+            System.getProperty(JOURNAL_DURABILITY_PROPERTY, MoveJournal.Durability.ASYNC.name()));
+    int segmentSize = Integer.getInteger(JOURNAL_SEGMENT_SIZE_PROPERTY, DEFAULT_SEGMENT_SIZE);
+    long flushInterval = Long.getLong(JOURNAL_FLUSH_INTERVAL_PROPERTY, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    LOGGER.info("Persisting moves to {} with durability {}", directory, durability);
+    MoveJournal journal = new MoveJournal(Paths.get(directory), segmentSize, durability, flushInterval);
+    Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "move-journal-shutdown"));
+    return journal;
+  }
 }
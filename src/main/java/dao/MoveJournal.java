@@ -0,0 +1,334 @@
+package dao;
+
+import model.Move;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of moves stored in fixed-size, memory-mapped segment files.
+ * Appends only copy the move into the mapped segment; a background flusher forces dirty segments
+ * to disk so that every append made during one flush interval shares a single fsync.
+ */
+class MoveJournal implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MoveJournal.class);
+
+  private static final String SEGMENT_PREFIX = "moves-";
+  private static final String SEGMENT_SUFFIX = ".journal";
+  private static final int HEADER_SIZE = 8;
+  private static final int NULL_STRING = -1;
+
+  /**
+   * How long an append waits before it is considered durable.
+   */
+  public enum Durability {
+    /** Appends are written back whenever the operating system decides to. */
+    NONE,
+    /** Appends return immediately and are forced by the flusher within one flush interval. */
+    ASYNC,
+    /** Appends wait for the next force of the flusher, which is shared with all concurrent appends. */
+    GROUP_COMMIT
+  }
+
+  private final Path directory;
+  private final int segmentSize;
+  private final Durability durability;
+  private final long flushIntervalMillis;
+
+  private final CRC32 crc;
+  private final Object flushLock;
+  private final List<MappedByteBuffer> unforcedSegments;
+  private ScheduledExecutorService flusher;
+
+  private MappedByteBuffer activeSegment;
+  private int activeSegmentIndex;
+  private long appended;
+  private volatile long flushed;
+  private volatile boolean closed;
+
+  /**
+   * Creates a journal in the given directory. {@link #recover} must be called before appending.
+   *
+   * @param directory directory holding the segment files, created if missing.
+   * @param segmentSize size in bytes of each segment file.
+   * @param durability durability level of appends.
+   * @param flushIntervalMillis delay between two forces of the flusher.
+   */
+  MoveJournal(Path directory, int segmentSize, Durability durability, long flushIntervalMillis) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.durability = durability;
+    this.flushIntervalMillis = flushIntervalMillis;
+    crc = new CRC32();
+    flushLock = new Object();
+    unforcedSegments = new ArrayList<>();
+  }
+
+  /**
+   * Replays every intact record in the journal and opens the last segment for appending.
+   * Replay stops at the first torn or corrupt record of a segment.
+   *
+   * @param listener receives the game id and move of each record, in append order.
+   * @return number of moves replayed.
+   * @throws IOException if the segment files can't be read or created.
+   */
+  synchronized int recover(BiConsumer<Integer, Move> listener) throws IOException {
+    Files.createDirectories(directory);
+    List<Path> segments = listSegments();
+    int replayed = 0;
+    for (Path segment : segments) {
+      MappedByteBuffer buffer = map(segment, Math.max(segmentSize, (int) Files.size(segment)));
+      replayed += replaySegment(segment, buffer, listener);
+      activeSegment = buffer;
+      activeSegmentIndex = segmentIndex(segment);
+    }
+    if (activeSegment == null) {
+      activeSegment = map(segmentPath(0), segmentSize);
+    }
+    // A torn record left at the tail must not be mistaken for data once appends resume.
+    if (activeSegment.remaining() >= Integer.BYTES) {
+      activeSegment.putInt(activeSegment.position(), 0);
+    }
+    LOGGER.info("Recovered {} moves from {} journal segments in {}", replayed, segments.size(), directory);
+    startFlusher();
+    return replayed;
+  }
+
+  /**
+   * Appends a move to the journal.
+   *
+   * @param gameId id of the game the move belongs to.
+   * @param move non-null move to append.
+   * @return ticket to pass to {@link #awaitDurable} once the caller released its locks.
+   * @throws IOException if a new segment can't be created.
+   */
+  synchronized long append(int gameId, Move move) throws IOException {
+    if (closed) {
+      throw new IOException("Move journal is closed");
+    }
+    while (true) {
+      int start = activeSegment.position();
+      try {
+        activeSegment.position(start + HEADER_SIZE);
+        writePayload(activeSegment, gameId, move);
+        int length = activeSegment.position() - start - HEADER_SIZE;
+        ByteBuffer payload = activeSegment.duplicate();
+        payload.limit(start + HEADER_SIZE + length);
+        payload.position(start + HEADER_SIZE);
+        crc.reset();
+        crc.update(payload);
+        activeSegment.putInt(start + Integer.BYTES, (int) crc.getValue());
+        // The length is written last so a record torn by a crash reads as the end of the segment.
+        activeSegment.putInt(start, length);
+        return ++appended;
+      }
+      catch (BufferOverflowException | IllegalArgumentException e) {
+        activeSegment.position(start);
+        if (start == 0) {
+          throw new IOException(String.format("Move %s does not fit in a journal segment", move), e);
+        }
+        rollSegment();
+      }
+    }
+  }
+
+  /**
+   * Blocks until the append with the given ticket is on disk, if the durability level requires it.
+   *
+   * @param ticket ticket returned by {@link #append}.
+   */
+  void awaitDurable(long ticket) {
+    if (durability != Durability.GROUP_COMMIT) {
+      return;
+    }
+    synchronized (flushLock) {
+      while (flushed < ticket && !closed) {
+        try {
+          flushLock.wait();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops the flusher and forces every outstanding append to disk.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    if (flusher != null) {
+      flusher.shutdown();
+      try {
+        flusher.awaitTermination(flushIntervalMillis * 10, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    flush();
+    closed = true;
+    synchronized (flushLock) {
+      flushLock.notifyAll();
+    }
+  }
+
+  private void startFlusher() {
+    if (durability == Durability.NONE || flusher != null) {
+      return;
+    }
+    flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "move-journal-flusher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void flush() {
+    List<MappedByteBuffer> toForce;
+    long target;
+    synchronized (this) {
+      target = appended;
+      if (target == flushed && unforcedSegments.isEmpty()) {
+        return;
+      }
+      toForce = new ArrayList<>(unforcedSegments);
+      unforcedSegments.clear();
+      toForce.add(activeSegment);
+    }
+    for (MappedByteBuffer segment : toForce) {
+      segment.force();
+    }
+    synchronized (flushLock) {
+      flushed = target;
+      flushLock.notifyAll();
+    }
+  }
+
+  private void rollSegment() throws IOException {
+    unforcedSegments.add(activeSegment);
+    activeSegmentIndex++;
+    activeSegment = map(segmentPath(activeSegmentIndex), segmentSize);
+    LOGGER.info("Rolled move journal to segment {}", activeSegmentIndex);
+  }
+
+  private int replaySegment(Path segment, ByteBuffer buffer, BiConsumer<Integer, Move> listener) {
+    int replayed = 0;
+    while (buffer.remaining() >= HEADER_SIZE) {
+      int start = buffer.position();
+      int length = buffer.getInt();
+      int checksum = buffer.getInt();
+      if (length <= 0 || length > buffer.remaining()) {
+        buffer.position(start);
+        break;
+      }
+      ByteBuffer payload = buffer.slice();
+      payload.limit(length);
+      crc.reset();
+      crc.update(payload.duplicate());
+      if ((int) crc.getValue() != checksum) {
+        LOGGER.warn("Corrupt move journal record in {} at offset {}, ignoring the rest of the segment", segment, start);
+        buffer.position(start);
+        break;
+      }
+      try {
+        int gameId = payload.getInt();
+        listener.accept(gameId, readMove(payload, gameId));
+      }
+      catch (BufferUnderflowException e) {
+        LOGGER.warn("Malformed move journal record in {} at offset {}, ignoring the rest of the segment", segment, start);
+        buffer.position(start);
+        break;
+      }
+      buffer.position(start + HEADER_SIZE + length);
+      replayed++;
+    }
+    return replayed;
+  }
+
+  private void writePayload(ByteBuffer buffer, int gameId, Move move) {
+    buffer.putInt(gameId);
+    writeString(buffer, move.getStartLocation());
+    writeString(buffer, move.getEndLocation());
+    writeString(buffer, move.getResult());
+  }
+
+  private Move readMove(ByteBuffer buffer, int gameId) {
+    Move move = new Move(readString(buffer), readString(buffer), readString(buffer));
+    move.setGameId(gameId);
+    return move;
+  }
+
+  private static void writeString(ByteBuffer buffer, String value) {
+    if (value == null) {
+      buffer.putInt(NULL_STRING);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    buffer.putInt(bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length == NULL_STRING) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private List<Path> listSegments() throws IOException {
+    List<Path> segments = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path segment : stream) {
+        segments.add(segment);
+      }
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private Path segmentPath(int index) {
+    return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+  }
+
+  private static int segmentIndex(Path segment) {
+    String name = segment.getFileName().toString();
+    return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private static MappedByteBuffer map(Path segment, int size) throws IOException {
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package dao;
+
+import model.Move;
+import model.MoveEncoding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Moves of a single game stored as one packed int per ply (see {@link MoveEncoding}).
+ * The rare move that can't be packed is kept as an object and referenced from its slot.
+ * Only the locations and result of a move are kept: the id a client sent is dropped, and a decoded move's id is its
+ * ply number.
+ */
+class PackedMoves {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int ESCAPED = 0x80000000;
+
+  private int[] plies;
+  private int size;
+  private List<Move> escaped;
+
+  PackedMoves() {
+    plies = new int[INITIAL_CAPACITY];
+  }
+
+  void add(Move move) {
+    int packed = MoveEncoding.pack(move);
+    if (packed == MoveEncoding.UNPACKABLE) {
+      if (escaped == null) {
+        escaped = new ArrayList<>();
+      }
+      packed = ESCAPED | escaped.size();
+      escaped.add(new Move(move.getStartLocation(), move.getEndLocation(), move.getResult()));
+    }
+    if (size == plies.length) {
+      plies = Arrays.copyOf(plies, size * 2);
+    }
+    plies[size++] = packed;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Decodes the plies in [from, to) into new Move objects.
+   * Each move gets its ply number as id and the given game id.
+   *
+   * @param gameId id of the game these moves belong to.
+   * @param from index of the first ply to decode.
+   * @param to index after the last ply to decode.
+   * @return decoded moves, in play order.
+   */
+  List<Move> decode(int gameId, int from, int to) {
+    List<Move> result = new ArrayList<>(Math.max(0, to - from));
+    for (int ply = from; ply < to; ply++) {
+      int packed = plies[ply];
+      Move move;
+      if ((packed & ESCAPED) != 0) {
+        Move original = escaped.get(packed & ~ESCAPED);
+        move = new Move(original.getStartLocation(), original.getEndLocation(), original.getResult());
+      }
+      else {
+        move = MoveEncoding.unpack(packed);
+      }
+      move.setId(ply);
+      move.setGameId(gameId);
+      result.add(move);
+    }
+    return result;
+  }
+}
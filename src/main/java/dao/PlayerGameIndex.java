@@ -0,0 +1,73 @@
+package dao;
+
+import model.GameFilter;
+import model.GameStatus;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Ids of the games a single player has been in, kept sorted and split by status
+ * so that filtered, paginated history is read straight from the index.
+ * All methods synchronize on the index, so a game moving between statuses is never seen in neither or both.
+ */
+class PlayerGameIndex {
+
+  private final NavigableSet<Integer> all;
+  private final NavigableSet<Integer> playing;
+  private final NavigableSet<Integer> finished;
+
+  PlayerGameIndex() {
+    all = new TreeSet<>();
+    playing = new TreeSet<>();
+    finished = new TreeSet<>();
+  }
+
+  synchronized void add(int gameId, GameStatus status) {
+    statusSet(status).add(gameId);
+    all.add(gameId);
+  }
+
+  synchronized void updateStatus(int gameId, GameStatus status) {
+    if (status.isFinished()) {
+      playing.remove(gameId);
+      finished.add(gameId);
+    }
+    else {
+      finished.remove(gameId);
+      playing.add(gameId);
+    }
+  }
+
+  /**
+   * Gets one page of the ids matching the filter.
+   *
+   * @param filter non-null filter on the status of the games.
+   * @param after id of the last game of the previous page, or -1 for the first page.
+   * @param limit maximum number of ids to return.
+   * @return at most limit ids greater than after, in increasing order.
+   */
+  synchronized List<Integer> page(GameFilter filter, int after, int limit) {
+    List<Integer> page = new ArrayList<>();
+    Iterator<Integer> gameIds = gameIds(filter).tailSet(after, false).iterator();
+    while (page.size() < limit && gameIds.hasNext()) {
+      page.add(gameIds.next());
+    }
+    return page;
+  }
+
+  private NavigableSet<Integer> gameIds(GameFilter filter) {
+    switch (filter) {
+      case PLAYING: return playing;
+      case FINISHED: return finished;
+      default: return all;
+    }
+  }
+
+  private NavigableSet<Integer> statusSet(GameStatus status) {
+    return status.isFinished() ? finished : playing;
+  }
+}
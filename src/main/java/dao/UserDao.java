@@ -1,29 +1,63 @@
 package dao;
 
+import exception.ServerException;
 import exception.user.UserNotFoundException;
 import model.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class UserDao {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(UserDao.class);
 
+  static final String STORE_DIRECTORY_PROPERTY = "chess.users.dir";
+  static final String FLUSH_INTERVAL_PROPERTY = "chess.users.flushIntervalMillis";
+  static final String SNAPSHOT_INTERVAL_PROPERTY = "chess.users.snapshotIntervalMillis";
+
+  private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+  private static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = 5 * 60 * 1000;
+
   private final Map<String, User> users;
+  private final UserStore store;
+  private final Object updateLock = new Object();
   private static UserDao userDAO = null;
 
   UserDao() {
-    users = new HashMap<>();
+    users = new ConcurrentHashMap<>();
+    store = null;
+  }
+
+  /**
+   * Creates a UserDao that persists its users in the given store.
+   * Users already in the store are loaded before the constructor returns.
+   *
+   * @param store store to recover from and log changes to.
+   */
+  UserDao(UserStore store) {
+    this.store = store;
+    try {
+      users = store.recover();
+    }
+    catch (IOException e) {
+      LOGGER.error("Could not recover users {}", e);
+      throw new ServerException(e);
+    }
+    store.start(users::values);
   }
 
   public static UserDao getInstance(){
     if(userDAO == null){
-      userDAO = new UserDao();
+      UserStore store = openStore();
+      userDAO = store == null ? new UserDao() : new UserDao(store);
     }
     return userDAO;
   }
@@ -76,22 +110,99 @@ public class UserDao {
    */
   public void addUser(User user) {
     LOGGER.info("Adding user: {}", user);
-    users.put(user.getUsername(), user);
+    save(user);
   }
 
   /**
    * Finds matching user in DB and replaces it with the new User info. User must already exist in the database.
    * User with matching username will be updated but win record won't be affected.
+   * Changing the password revokes every cookie issued to the user.
    *
    * @param user non-null User to be update in the DB.
    * @throws UserNotFoundException if user does not exist.
    */
   public void updateUser(User user) throws UserNotFoundException {
     LOGGER.info("Updating user: {}", user);
-    User userToUpdate = users.get(user.getUsername());
-    if (userToUpdate == null) {
-      throw new UserNotFoundException(String.format("User %s not found", user.getUsername()));
+    synchronized (updateLock) {
+      User userToUpdate = users.get(user.getUsername());
+      if (userToUpdate == null) {
+        throw new UserNotFoundException(String.format("User %s not found", user.getUsername()));
+      }
+      user.setRecord(userToUpdate.getRank(), userToUpdate.getWins(), userToUpdate.getLoses(),
+              userToUpdate.getDraws());
+      user.resetCookieVersion(userToUpdate.getCookieVersion());
+      if (!Objects.equals(user.getPassword(), userToUpdate.getPassword())) {
+        user.revokeCookies();
+      }
+      save(user);
+    }
+  }
+
+  /**
+   * Replaces the rank and win record of each given user, keeping the rest of its current details.
+   * Users that no longer exist are skipped. Either every record is updated or, if they can't be logged, none is.
+   *
+   * @param records non-null users carrying the new rank and win record.
+   */
+  public void updateRecords(Collection<User> records) {
+    LOGGER.info("Updating the records of {} users", records.size());
+    List<User> updates = new ArrayList<>(records.size());
+    synchronized (updateLock) {
+      for (User record : records) {
+        User current = users.get(record.getUsername());
+        if (current == null) {
+          LOGGER.warn("Not updating the record of missing user {}", record.getUsername());
+          continue;
+        }
+        User updated = new User(current);
+        updated.setRecord(record.getRank(), record.getWins(), record.getLoses(), record.getDraws());
+        updates.add(updated);
+      }
+      if (!updates.isEmpty()) {
+        save(updates);
+      }
+    }
+  }
+
+  private void save(List<User> updates) {
+    Runnable change = () -> updates.forEach(user -> users.put(user.getUsername(), user));
+    if (store == null) {
+      change.run();
+      return;
+    }
+    try {
+      store.append(updates, change);
+    }
+    catch (IOException e) {
+      LOGGER.error("Could not log the records of {} users {}", updates.size(), e);
+      throw new ServerException(e);
+    }
+  }
+
+  private void save(User user) {
+    if (store == null) {
+      users.put(user.getUsername(), user);
+      return;
+    }
+    try {
+      store.append(user, () -> users.put(user.getUsername(), user));
+    }
+    catch (IOException e) {
+      LOGGER.error("Could not log user {} {}", user.getUsername(), e);
+      throw new ServerException(e);
+    }
+  }
+
+  private static UserStore openStore() {
+    String directory = System.getProperty(STORE_DIRECTORY_PROPERTY);
+    if (directory == null) {
+      return null;
     }
-    users.put(user.getUsername(), user);
+    LOGGER.info("Persisting users to {}", directory);
+    UserStore store = new UserStore(Paths.get(directory),
+            Long.getLong(FLUSH_INTERVAL_PROPERTY, DEFAULT_FLUSH_INTERVAL_MILLIS),
+            Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, DEFAULT_SNAPSHOT_INTERVAL_MILLIS));
+    Runtime.getRuntime().addShutdownHook(new Thread(store::close, "user-store-shutdown"));
+    return store;
   }
 }
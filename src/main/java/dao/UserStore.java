@@ -0,0 +1,401 @@
+package dao;
+
+import model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Persists users as periodic binary snapshots plus a write-ahead log of the changes made since.
+ * Snapshot generation N holds every change logged in the write-ahead logs before generation N,
+ * so recovery loads the newest snapshot and replays the logs of the same or later generations.
+ * Snapshots are split into independently checksummed chunks that are decoded in parallel at boot.
+ */
+class UserStore implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(UserStore.class);
+
+  private static final String FILE_PREFIX = "users-";
+  private static final String SNAPSHOT_SUFFIX = ".snapshot";
+  private static final String LOG_SUFFIX = ".wal";
+  private static final int SNAPSHOT_MAGIC = 0x43435553;
+  private static final int SNAPSHOT_VERSION = 2;
+  private static final int SNAPSHOT_HEADER_SIZE = 20;
+  private static final int CHUNK_ENTRY_SIZE = 20;
+  private static final int USERS_PER_CHUNK = 16384;
+  private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+  private final Path directory;
+  private final long flushIntervalMillis;
+  private final long snapshotIntervalMillis;
+
+  private final CRC32 crc;
+  private final ByteArrayOutputStream record;
+  private final DataOutputStream recordOut;
+  private ScheduledExecutorService scheduler;
+
+  private FileChannel log;
+  private long generation;
+
+  /**
+   * Creates a store in the given directory. {@link #recover} must be called before appending.
+   *
+   * @param directory directory holding the snapshots and logs, created if missing.
+   * @param flushIntervalMillis delay between two forces of the write-ahead log.
+   * @param snapshotIntervalMillis delay between two snapshots.
+   */
+  UserStore(Path directory, long flushIntervalMillis, long snapshotIntervalMillis) {
+    this.directory = directory;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.snapshotIntervalMillis = snapshotIntervalMillis;
+    crc = new CRC32();
+    record = new ByteArrayOutputStream();
+    recordOut = new DataOutputStream(record);
+  }
+
+  /**
+   * Loads the newest snapshot, replays the write-ahead logs written after it and opens a new log.
+   *
+   * @return concurrent map of every persisted user by username.
+   * @throws IOException if the files can't be read or the newest snapshot is corrupt.
+   */
+  synchronized Map<String, User> recover() throws IOException {
+    Files.createDirectories(directory);
+    Map<String, User> users = new ConcurrentHashMap<>();
+    long snapshotGeneration = newestGeneration(SNAPSHOT_SUFFIX);
+    long newestLog = newestGeneration(LOG_SUFFIX);
+    if (snapshotGeneration >= 0) {
+      loadSnapshot(path(snapshotGeneration, SNAPSHOT_SUFFIX), users);
+    }
+    int replayed = 0;
+    for (long logGeneration = Math.max(0, snapshotGeneration); logGeneration <= newestLog; logGeneration++) {
+      Path logPath = path(logGeneration, LOG_SUFFIX);
+      if (Files.exists(logPath)) {
+        replayed += replayLog(logPath, users);
+      }
+    }
+    generation = Math.max(snapshotGeneration, newestLog) + 1;
+    log = openLog(generation);
+    LOGGER.info("Recovered {} users from snapshot {} and {} logged changes in {}",
+            users.size(), snapshotGeneration, replayed, directory);
+    return users;
+  }
+
+  /**
+   * Starts forcing the log and taking snapshots in the background.
+   *
+   * @param users supplies the current users whenever a snapshot is taken.
+   */
+  synchronized void start(Supplier<Collection<User>> users) {
+    if (scheduler != null) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "user-store");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        snapshot(users);
+      }
+      catch (IOException | RuntimeException e) {
+        LOGGER.error("Could not take a snapshot of the users {}", e);
+      }
+    }, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Logs the new state of a user, then applies the change while no snapshot can start.
+   *
+   * @param user non-null user to log.
+   * @param change applies the logged state to the in-memory users.
+   * @throws IOException if the log can't be written.
+   */
+  void append(User user, Runnable change) throws IOException {
+    append(Collections.singletonList(user), change);
+  }
+
+  /**
+   * Logs the new state of several users as one checksummed record, so recovery replays either all of them or none,
+   * then applies the change while no snapshot can start.
+   *
+   * @param users non-null users to log.
+   * @param change applies the logged states to the in-memory users.
+   * @throws IOException if the log can't be written or the record is too large to be replayed.
+   */
+  synchronized void append(Collection<User> users, Runnable change) throws IOException {
+    record.reset();
+    recordOut.writeInt(0);
+    recordOut.writeInt(0);
+    for (User user : users) {
+      user.writeTo(recordOut);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+    int length = buffer.limit() - 8;
+    if (length > MAX_RECORD_SIZE) {
+      throw new IOException(String.format("A record of %s users takes %s bytes, over %s", users.size(), length,
+              MAX_RECORD_SIZE));
+    }
+    crc.reset();
+    crc.update(buffer.array(), 8, length);
+    buffer.putInt(0, length);
+    buffer.putInt(4, (int) crc.getValue());
+    while (buffer.hasRemaining()) {
+      log.write(buffer);
+    }
+    change.run();
+  }
+
+  /**
+   * Writes a snapshot of the given users and deletes the files it makes obsolete.
+   *
+   * @param users supplies the current users.
+   * @throws IOException if the snapshot can't be written.
+   */
+  void snapshot(Supplier<Collection<User>> users) throws IOException {
+    List<User> copy;
+    long snapshotGeneration;
+    synchronized (this) {
+      log.force(false);
+      log.close();
+      generation++;
+      log = openLog(generation);
+      snapshotGeneration = generation;
+      copy = new ArrayList<>(users.get());
+    }
+    writeSnapshot(snapshotGeneration, copy);
+    deleteBefore(snapshotGeneration);
+    LOGGER.info("Wrote snapshot {} with {} users", snapshotGeneration, copy.size());
+  }
+
+  @Override
+  public synchronized void close() {
+    if (scheduler != null) {
+      scheduler.shutdown();
+    }
+    try {
+      if (log != null && log.isOpen()) {
+        log.force(false);
+        log.close();
+      }
+    }
+    catch (IOException e) {
+      LOGGER.error("Could not close the user log {}", e);
+    }
+  }
+
+  private void flush() {
+    FileChannel current;
+    synchronized (this) {
+      current = log;
+    }
+    try {
+      current.force(false);
+    }
+    catch (ClosedChannelException e) {
+      // A snapshot rotated the log, which forces it first.
+    }
+    catch (IOException e) {
+      LOGGER.error("Could not force the user log {}", e);
+    }
+  }
+
+  private void writeSnapshot(long snapshotGeneration, List<User> users) throws IOException {
+    int chunkCount = (users.size() + USERS_PER_CHUNK - 1) / USERS_PER_CHUNK;
+    Path temporary = directory.resolve(path(snapshotGeneration, SNAPSHOT_SUFFIX).getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE + chunkCount * CHUNK_ENTRY_SIZE);
+      header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(snapshotGeneration).putInt(chunkCount);
+      long offset = header.capacity();
+      channel.position(offset);
+      ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+      DataOutputStream chunkOut = new DataOutputStream(chunk);
+      // append() keeps using the crc field while a snapshot is written, so chunks get their own.
+      CRC32 chunkCrc = new CRC32();
+      for (int i = 0; i < chunkCount; i++) {
+        chunk.reset();
+        int end = Math.min(users.size(), (i + 1) * USERS_PER_CHUNK);
+        for (User user : users.subList(i * USERS_PER_CHUNK, end)) {
+          user.writeTo(chunkOut);
+        }
+        byte[] bytes = chunk.toByteArray();
+        chunkCrc.reset();
+        chunkCrc.update(bytes, 0, bytes.length);
+        header.putLong(offset).putInt(bytes.length).putInt(end - i * USERS_PER_CHUNK)
+                .putInt((int) chunkCrc.getValue());
+        ByteBuffer data = ByteBuffer.wrap(bytes);
+        while (data.hasRemaining()) {
+          channel.write(data);
+        }
+        offset += bytes.length;
+      }
+      header.flip();
+      channel.position(0);
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      channel.force(true);
+    }
+    Files.move(temporary, path(snapshotGeneration, SNAPSHOT_SUFFIX), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private void loadSnapshot(Path snapshot, Map<String, User> users) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.getInt(0) != SNAPSHOT_MAGIC || buffer.getInt(4) != SNAPSHOT_VERSION) {
+      throw new IOException(String.format("%s is not a version %s user snapshot", snapshot, SNAPSHOT_VERSION));
+    }
+    int chunkCount = buffer.getInt(16);
+    try {
+      IntStream.range(0, chunkCount).parallel().forEach(chunk -> loadChunk(snapshot, buffer, chunk, users));
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static void loadChunk(Path snapshot, ByteBuffer buffer, int chunk, Map<String, User> users) {
+    int entry = SNAPSHOT_HEADER_SIZE + chunk * CHUNK_ENTRY_SIZE;
+    int offset = (int) buffer.getLong(entry);
+    int length = buffer.getInt(entry + 8);
+    int count = buffer.getInt(entry + 12);
+    int checksum = buffer.getInt(entry + 16);
+    byte[] bytes = new byte[length];
+    ByteBuffer data = buffer.duplicate();
+    data.position(offset);
+    data.get(bytes);
+    CRC32 chunkCrc = new CRC32();
+    chunkCrc.update(bytes, 0, length);
+    try {
+      if ((int) chunkCrc.getValue() != checksum) {
+        throw new IOException(String.format("Chunk %s of %s is corrupt", chunk, snapshot));
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      for (int i = 0; i < count; i++) {
+        User user = User.readFrom(in);
+        users.put(user.getUsername(), user);
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private int replayLog(Path logPath, Map<String, User> users) throws IOException {
+    int replayed = 0;
+    CRC32 recordCrc = new CRC32();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath)))) {
+      while (true) {
+        byte[] bytes;
+        int checksum;
+        try {
+          int length = in.readInt();
+          checksum = in.readInt();
+          if (length < 0 || length > MAX_RECORD_SIZE) {
+            LOGGER.warn("Torn record in {}, ignoring the rest of the log", logPath);
+            break;
+          }
+          bytes = new byte[length];
+          in.readFully(bytes);
+        }
+        catch (EOFException e) {
+          break;
+        }
+        recordCrc.reset();
+        recordCrc.update(bytes, 0, bytes.length);
+        if ((int) recordCrc.getValue() != checksum) {
+          LOGGER.warn("Corrupt record in {}, ignoring the rest of the log", logPath);
+          break;
+        }
+        ByteArrayInputStream recordIn = new ByteArrayInputStream(bytes);
+        DataInputStream recordData = new DataInputStream(recordIn);
+        while (recordIn.available() > 0) {
+          User user = User.readFrom(recordData);
+          users.put(user.getUsername(), user);
+          replayed++;
+        }
+      }
+    }
+    return replayed;
+  }
+
+  private void deleteBefore(long snapshotGeneration) throws IOException {
+    for (Path file : listFiles()) {
+      if (generationOf(file) < snapshotGeneration) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  private long newestGeneration(String suffix) throws IOException {
+    long newest = -1;
+    for (Path file : listFiles()) {
+      if (file.getFileName().toString().endsWith(suffix)) {
+        newest = Math.max(newest, generationOf(file));
+      }
+    }
+    return newest;
+  }
+
+  private List<Path> listFiles() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*")) {
+      for (Path file : stream) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(SNAPSHOT_SUFFIX) || name.endsWith(LOG_SUFFIX)) {
+          files.add(file);
+        }
+      }
+    }
+    return files;
+  }
+
+  private static long generationOf(Path file) {
+    String name = file.getFileName().toString();
+    return Long.parseLong(name.substring(FILE_PREFIX.length(), name.lastIndexOf('.')));
+  }
+
+  private Path path(long fileGeneration, String suffix) {
+    return directory.resolve(String.format("%s%016d%s", FILE_PREFIX, fileGeneration, suffix));
+  }
+
+  private FileChannel openLog(long logGeneration) throws IOException {
+    return FileChannel.open(path(logGeneration, LOG_SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+  }
+}
@@ -1,49 +1,66 @@
 package facade;
 
 import dao.GameDao;
+import exception.ServerException;
 import exception.game.GameException;
+import exception.game.GameNotFoundException;
 import exception.user.InvalidUserCookieException;
 import exception.user.UserNotFoundException;
 import manager.ClientConnectionManager;
 import manager.CookieManager;
+import manager.MatchmakingManager;
 import model.Game;
+import model.GameFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GameFacade {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(GameFacade.class);
 
   private final GameDao gameDao;
-  private final Queue<String> userQueue;
   private final CookieManager cookieManager;
   private final ClientConnectionManager clientConnectionManager;
+  private final MatchmakingManager matchmakingManager;
+
+  private static final AtomicBoolean listening = new AtomicBoolean();
 
   /**
-   * Default Constructor.
+   * Default Constructor. The first one created listens to the matches of the shared MatchmakingManager, for every
+   * GameFacade of the process: they all create games with the same shared DAOs and managers.
    */
   public GameFacade() {
     gameDao = GameDao.getInstance();
-    userQueue = new LinkedList<>();
     cookieManager = CookieManager.getInstance();
     clientConnectionManager = ClientConnectionManager.getInstance();
+    matchmakingManager = MatchmakingManager.getInstance();
+    if (listening.compareAndSet(false, true)) {
+      listenForMatches();
+    }
   }
 
   /**
    * Constructor for unit testing.
    *
    * @param gameDao GameDao to access game data.
+   * @param matchmakingManager MatchmakingManager pairing players of random games.
    */
   GameFacade(GameDao gameDao, CookieManager cookieManager,
-                    ClientConnectionManager clientConnectionManager) {
+                    ClientConnectionManager clientConnectionManager, MatchmakingManager matchmakingManager) {
     this.gameDao = gameDao;
-    userQueue = new LinkedList<>();
     this.cookieManager = cookieManager;
     this.clientConnectionManager = clientConnectionManager;
+    this.matchmakingManager = matchmakingManager;
+  }
+
+  /**
+   * Creates the games of the matches made by matchmaking ticks from now on.
+   */
+  void listenForMatches() {
+    matchmakingManager.setListener(this::createMatchedGames);
   }
 
   /**
@@ -62,6 +79,26 @@ public class GameFacade {
     return gameDao.getUserGames(username);
   }
 
+  /**
+   * Returns one page of the games a user has played in, oldest first.
+   *
+   * @param username non-null string which is the player's username
+   * @param filter non-null filter on the status of the games.
+   * @param after id of the last game of the previous page, or -1 for the first page.
+   * @param limit maximum number of games to return.
+   * @param userCookie Cookie of the user requesting the games.
+   * @return at most limit games matching the filter that come after the given game.
+   * @throws InvalidUserCookieException if user cookie is invalid.
+   * @throws UserNotFoundException when user does not exist.
+   */
+  public List<Game> getUserGames(String username, GameFilter filter, int after, int limit, String userCookie)
+          throws InvalidUserCookieException, UserNotFoundException {
+    LOGGER.info("Getting {} games for user {} after {} limited to {} with cookie {}",
+            filter, username, after, limit, userCookie);
+    cookieManager.validateUserCookie(userCookie);
+    return gameDao.getUserGames(username, filter, after, limit);
+  }
+
   /**
    * Creates a game with the two specified players.
    * Game object (and game cookie) is sent to both players via socket.
@@ -79,19 +116,12 @@ public class GameFacade {
     cookieManager.validateUserCookie(userCookie);
 
     Game game = gameDao.createGame(player1, player2);
-    LOGGER.info("Creating game {} and sending data.", game);
-    clientConnectionManager.sendData(player1, game);
-    clientConnectionManager.sendData(player2, game);
-
-    String gameCookie = cookieManager.makeGameCookie(game.getGameId());
-    LOGGER.info("Creating game cookie {} and sending data.", gameCookie);
-    clientConnectionManager.sendData(player1, gameCookie);
-    clientConnectionManager.sendData(player2, gameCookie);
+    sendGame(game);
   }
 
   /**
    * Creates a game with another user.
-   * If no other user is currently waiting for a game, user is added to the queue.
+   * If no other user is currently waiting for a game, user waits for one; asking again while waiting has no effect.
    *
    * @param username Player requesting to create a new game.
    * @param userCookie Cookie of the user attempting to create the game.
@@ -103,14 +133,54 @@ public class GameFacade {
           throws InvalidUserCookieException, GameException, UserNotFoundException {
     LOGGER.info("Creating random game for {}", username);
     cookieManager.validateUserCookie(userCookie);
-    if (!userQueue.isEmpty()) {
-      String player2 = userQueue.poll();
+    String player2 = matchmakingManager.match(username);
+    if (player2 != null) {
       LOGGER.info("{} was was waiting for a game.", player2);
       createGame(username, player2, userCookie);
     }
-    else {
-      LOGGER.info("Adding player to the queue to wait for an opponent.");
-      userQueue.add(username);
+  }
+
+  /**
+   * Stops a user from waiting for a random game.
+   *
+   * @param username Player that no longer wants a random game.
+   * @param userCookie Cookie of the user cancelling.
+   * @return true if the user was waiting, false if it wasn't or has just been matched.
+   * @throws InvalidUserCookieException if user cookie is invalid.
+   * @throws UserNotFoundException when user does not exist.
+   */
+  public boolean cancelRandomGame(String username, String userCookie)
+          throws InvalidUserCookieException, UserNotFoundException {
+    LOGGER.info("Cancelling random game for {}", username);
+    cookieManager.validateUserCookie(userCookie);
+    return matchmakingManager.cancel(username);
+  }
+
+  /**
+   * Creates the games of the matches made by a matchmaking tick, in one bulk operation.
+   *
+   * @param players players of the matches; players 2i and 2i + 1 play game i.
+   */
+  private void createMatchedGames(List<String> players) {
+    try {
+      for (Game game : gameDao.createGames(players)) {
+        sendGame(game);
+      }
     }
+    catch (GameException e) {
+      LOGGER.error("Could not create matched games {}", e);
+      throw new ServerException(e);
+    }
+  }
+
+  private void sendGame(Game game) throws GameNotFoundException {
+    LOGGER.info("Creating game {} and sending data.", game);
+    clientConnectionManager.sendData(game.getPlayer1(), game);
+    clientConnectionManager.sendData(game.getPlayer2(), game);
+
+    String gameCookie = cookieManager.makeGameCookie(game.getGameId());
+    LOGGER.info("Creating game cookie {} and sending data.", gameCookie);
+    clientConnectionManager.sendData(game.getPlayer1(), gameCookie);
+    clientConnectionManager.sendData(game.getPlayer2(), gameCookie);
   }
 }
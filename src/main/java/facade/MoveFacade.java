@@ -9,6 +9,7 @@ import exception.user.InvalidUserCookieException;
 import exception.user.UserNotFoundException;
 import manager.ClientConnectionManager;
 import manager.CookieManager;
+import manager.StatsManager;
 import model.Game;
 import model.GameStatus;
 import model.Move;
@@ -27,6 +28,7 @@ public class MoveFacade {
   private final CookieManager cookieManager;
   private final MoveDao moveDao;
   private final GameDao gameDao;
+  private final StatsManager statsManager;
   private final Map<String, Move> movesToVerify;
 
   /**
@@ -37,6 +39,7 @@ public class MoveFacade {
     moveDao = MoveDao.getInstance();
     cookieManager = CookieManager.getInstance();
     gameDao = GameDao.getInstance();
+    statsManager = StatsManager.getInstance();
     movesToVerify = new HashMap<>();
   }
 
@@ -44,11 +47,12 @@ public class MoveFacade {
    * Constructor for unit tests.
    */
   MoveFacade(ClientConnectionManager clientConnectionManager, CookieManager cookieManager,
-             MoveDao moveDao, GameDao gameDao) {
+             MoveDao moveDao, GameDao gameDao, StatsManager statsManager) {
     this.clientConnectionManager = clientConnectionManager;
     this.moveDao = moveDao;
     this.cookieManager = cookieManager;
     this.gameDao = gameDao;
+    this.statsManager = statsManager;
     movesToVerify = new HashMap<>();
   }
 
@@ -67,13 +71,31 @@ public class MoveFacade {
   public List<Move> getMovesForGame(int gameId, String userCookie, String gameCookie)
           throws InvalidGameCookieException, GameNotFoundException, InvalidUserCookieException, UserNotFoundException {
     LOGGER.info("MoveFacade.getMovesForGame");
-    cookieManager.validateCookies(userCookie, gameCookie);
-    if (Integer.parseInt(cookieManager.getQualifier(gameCookie)) != gameId) {
-      throw new InvalidGameCookieException("Game cookie doesn't match game id you are requesting");
-    }
+    validateGameAccess(gameId, userCookie, gameCookie);
     return moveDao.getMovesForGame(gameId);
   }
 
+  /**
+   * Gets the moves for a specified game played after the given move.
+   *
+   * @param gameId     non-negative integer corresponding to the game.
+   * @param after      id of the last move the caller already has, or -1 to start from the first move.
+   * @param limit      maximum number of moves to return.
+   * @param userCookie non-null String
+   * @param gameCookie non-null String
+   * @return at most limit moves played after the given move.
+   * @throws GameNotFoundException      when the game does not exist.
+   * @throws UserNotFoundException      if cookie is for a different user.
+   * @throws InvalidUserCookieException if not a valid user cookie
+   * @throws InvalidGameCookieException if not a valid game cookie
+   */
+  public List<Move> getMovesForGame(int gameId, int after, int limit, String userCookie, String gameCookie)
+          throws InvalidGameCookieException, GameNotFoundException, InvalidUserCookieException, UserNotFoundException {
+    LOGGER.info("MoveFacade.getMovesForGame after {} limited to {}", after, limit);
+    validateGameAccess(gameId, userCookie, gameCookie);
+    return moveDao.getMovesForGame(gameId, after, limit);
+  }
+
   //make move
 
   /**
@@ -110,6 +132,7 @@ public class MoveFacade {
 
   /**
    * Makes sure the move was previously made and adds it to the game.
+   * A move with a result finishes the game, and the players' records are updated in the background.
    *
    * @param move       non null Move attempting to be made.
    * @param userCookie non-null String
@@ -132,10 +155,19 @@ public class MoveFacade {
       moveDao.addMove(gameId, move);
       if (!move.getResult().equals("")) {
         gameDao.updateGame(gameId, GameStatus.convert(move.getResult()));
+        statsManager.gameFinished(gameDao.getGame(gameId));
       }
     }
     else {
       throw new GameException("Move not meant to validated.");
     }
   }
+
+  private void validateGameAccess(int gameId, String userCookie, String gameCookie)
+          throws InvalidGameCookieException, GameNotFoundException, InvalidUserCookieException, UserNotFoundException {
+    cookieManager.validateCookies(userCookie, gameCookie);
+    if (Integer.parseInt(cookieManager.getQualifier(gameCookie)) != gameId) {
+      throw new InvalidGameCookieException("Game cookie doesn't match game id you are requesting");
+    }
+  }
 }
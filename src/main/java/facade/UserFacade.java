@@ -108,7 +108,7 @@ public class UserFacade {
 
   /**
    * @Pre User with matching username already exists.
-   * @Post Sets user to offline.
+   * @Post Sets user to offline and revokes every cookie issued to the user.
    * @throws InvalidUserCookieException if the cookie is invalid.
    *
    */
@@ -117,6 +117,7 @@ public class UserFacade {
     cookieManager.validateUserCookie(cookie);
     User tempUser = userDao.getUser(username);
     tempUser.setOffline();
+    tempUser.revokeCookies();
     userDao.updateUser(tempUser);
     LOGGER.info("Successfully logged {} out", username);
   }
@@ -1,24 +1,189 @@
 package manager;
 
-import exception.user.UserNotFoundException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import exception.ServerException;
 import model.ConnectionInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.Socket;
-import java.util.HashMap;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Pushes events to clients, either over connections the server opens to them or, for clients that can't accept
+ * inbound connections, over a Server-Sent Events stream the client opened.
+ * All socket work happens on a single event loop thread driving a Selector over non-blocking channels;
+ * streams are written from the same thread through non-blocking servlet output, so no container thread is held.
+ * Request threads only append the event to the user's bounded outbound queue, so a slow or unreachable client
+ * never blocks them.
+ * Each connection tracks the bytes it holds: its queued events plus the frame handed to the transport but not yet
+ * on the wire. Once these go over the high watermark, or the queue is full, the client is a slow consumer and,
+ * depending on the {@link SlowConsumerPolicy}, either loses events until it drains below the low watermark or is
+ * disconnected.
+ * A user's first queued event schedules a flush one tick later; the flush coalesces every event queued for the
+ * user by then, and any queued while the previous frame was being written, into a single frame.
+ * Socket frames use the compact binary format of {@link PushFrameEncoder} and are encoded into pooled direct
+ * buffers; stream frames hold one SSE message per event, with the sequence number as id and the event as JSON.
+ * Every event sent to a user gets the next number of the user's sequence and is kept in a bounded
+ * {@link ReplayBuffer}, whether or not the user is connected. A client that connects again with the sequence
+ * number of the last event it received is first sent only the events it missed, or a reset event if they are no
+ * longer kept. Sequence numbers also reveal events dropped for slow consumers.
+ */
 public class ClientConnectionManager {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ClientConnectionManager.class);
 
-  private final Map<String, Socket> sockets;
+  static final String MAX_QUEUED_EVENTS_PROPERTY = "chess.push.maxQueuedEvents";
+  static final String FLUSH_INTERVAL_PROPERTY = "chess.push.flushIntervalMillis";
+  static final String HIGH_WATERMARK_PROPERTY = "chess.push.highWatermarkBytes";
+  static final String LOW_WATERMARK_PROPERTY = "chess.push.lowWatermarkBytes";
+  static final String SLOW_CONSUMER_POLICY_PROPERTY = "chess.push.slowConsumerPolicy";
+  static final String REPLAY_EVENTS_PROPERTY = "chess.push.replayEvents";
+  static final String REPLAY_USERS_PROPERTY = "chess.push.replayUsers";
+  static final String REPLAY_TTL_PROPERTY = "chess.push.replayTtlMillis";
+
+  private static final int DEFAULT_MAX_QUEUED_EVENTS = 1024;
+  private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 2;
+  private static final long DEFAULT_HIGH_WATERMARK_BYTES = 1024 * 1024;
+  private static final long DEFAULT_LOW_WATERMARK_BYTES = 256 * 1024;
+  private static final int DEFAULT_REPLAY_EVENTS = 256;
+  private static final int DEFAULT_REPLAY_USERS = 100000;
+  private static final long DEFAULT_REPLAY_TTL_MILLIS = 30 * 60 * 1000;
+  private static final long SEQUENCES_PER_MILLI = 1000;
+  private static final int READ_BUFFER_BYTES = 512;
+  private static final int FRAME_BUFFER_BYTES = 4096;
+  private static final int MAX_POOLED_FRAME_BUFFERS = 64;
+  private static final int RESOLVER_THREADS = 4;
+
+  private final Map<String, Connection> connections;
+  private final Queue<Runnable> tasks;
+  private final int maxQueuedEvents;
+  private final long flushIntervalMillis;
+  private final long highWatermarkBytes;
+  private final long lowWatermarkBytes;
+  private final SlowConsumerPolicy slowConsumerPolicy;
+  private final int replayEvents;
+  private final ExpiringCache<ReplayBuffer> replays;
+  private final LongAdder framesSent;
+  private final LongAdder eventsSent;
+  private final LongAdder bytesSent;
+  private final LongAdder eventsDropped;
+  private final LongAdder eventsUndeliverable;
+  private final LongAdder slowConsumers;
+  private final LongAdder evictions;
+  private final LongAdder eventsReplayed;
+  private final LongAdder resets;
+  private final ByteBuffer readBuffer;
+  private final DirectBufferPool frameBuffers;
+  private final ObjectMapper objectMapper;
+  private final Deque<Connection> scheduledFlushes;
+  private final ExecutorService resolver;
+  private Selector selector;
+  private Thread eventLoop;
+  private volatile boolean running;
 
   private static ClientConnectionManager instance;
 
+  /**
+   * What happens to a client once it holds more than the high watermark.
+   */
+  public enum SlowConsumerPolicy {
+    /** New events for the client are dropped until it drains below the low watermark. */
+    DROP,
+    /** The client is disconnected and has to connect again. */
+    DISCONNECT
+  }
+
   ClientConnectionManager() {
-    sockets = new HashMap<>();
+    this(MetricsManager.getInstance(), Integer.getInteger(MAX_QUEUED_EVENTS_PROPERTY, DEFAULT_MAX_QUEUED_EVENTS),
+            Long.getLong(FLUSH_INTERVAL_PROPERTY, DEFAULT_FLUSH_INTERVAL_MILLIS),
+            Long.getLong(HIGH_WATERMARK_PROPERTY, DEFAULT_HIGH_WATERMARK_BYTES),
+            Long.getLong(LOW_WATERMARK_PROPERTY, DEFAULT_LOW_WATERMARK_BYTES),
+            SlowConsumerPolicy.valueOf(System.getProperty(SLOW_CONSUMER_POLICY_PROPERTY,
+                    SlowConsumerPolicy.DROP.name())),
+            Integer.getInteger(REPLAY_EVENTS_PROPERTY, DEFAULT_REPLAY_EVENTS),
+            Integer.getInteger(REPLAY_USERS_PROPERTY, DEFAULT_REPLAY_USERS),
+            Long.getLong(REPLAY_TTL_PROPERTY, DEFAULT_REPLAY_TTL_MILLIS));
+  }
+
+  /**
+   * Constructor for unit testing.
+   *
+   * @param metricsManager MetricsManager the connections report to.
+   * @param maxQueuedEvents maximum number of events waiting to be sent to one client.
+   * @param flushIntervalMillis time events are held so that those sent together share a frame.
+   * @param highWatermarkBytes bytes a client may hold before it is treated as a slow consumer.
+   * @param lowWatermarkBytes bytes a dropping client has to drain down to before it receives events again.
+   * @param slowConsumerPolicy what happens to slow consumers.
+   * @param replayEvents number of recent events kept per user for clients that resume.
+   * @param replayUsers maximum number of users whose recent events are kept.
+   * @param replayTtlMillis time the recent events of a user are kept after the user was last sent an event or
+   * connected.
+   */
+  ClientConnectionManager(MetricsManager metricsManager, int maxQueuedEvents, long flushIntervalMillis,
+                          long highWatermarkBytes, long lowWatermarkBytes, SlowConsumerPolicy slowConsumerPolicy,
+                          int replayEvents, int replayUsers, long replayTtlMillis) {
+    connections = new ConcurrentHashMap<>();
+    tasks = new ConcurrentLinkedQueue<>();
+    this.maxQueuedEvents = maxQueuedEvents;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.highWatermarkBytes = highWatermarkBytes;
+    this.lowWatermarkBytes = lowWatermarkBytes;
+    this.slowConsumerPolicy = slowConsumerPolicy;
+    this.replayEvents = replayEvents;
+    replays = new ExpiringCache<>(replayUsers, replayTtlMillis, Clock.systemUTC(), replay -> {},
+            metricsManager.counter("push.replayBuffers.evicted"), metricsManager.counter("push.replayBuffers.expired"));
+    framesSent = metricsManager.counter("push.framesSent");
+    eventsSent = metricsManager.counter("push.eventsSent");
+    bytesSent = metricsManager.counter("push.bytesSent");
+    eventsDropped = metricsManager.counter("push.eventsDropped");
+    eventsUndeliverable = metricsManager.counter("push.eventsUndeliverable");
+    slowConsumers = metricsManager.counter("push.slowConsumers");
+    evictions = metricsManager.counter("push.evictions");
+    eventsReplayed = metricsManager.counter("push.eventsReplayed");
+    resets = metricsManager.counter("push.resets");
+    metricsManager.registerGauge("push.replayBuffers", replays::size);
+    metricsManager.registerGauge("push.connections", connections::size);
+    metricsManager.registerGauge("push.queuedEvents",
+            () -> connections.values().stream().mapToLong(Connection::queued).sum());
+    metricsManager.registerGauge("push.pendingBytes",
+            () -> connections.values().stream().mapToLong(Connection::pendingBytes).sum());
+    metricsManager.registerGauge("push.maxPendingBytes",
+            () -> connections.values().stream().mapToLong(Connection::pendingBytes).max().orElse(0));
+    readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+    frameBuffers = new DirectBufferPool(FRAME_BUFFER_BYTES, MAX_POOLED_FRAME_BUFFERS);
+    objectMapper = new ObjectMapper();
+    scheduledFlushes = new ArrayDeque<>();
+    resolver = Executors.newFixedThreadPool(RESOLVER_THREADS, runnable -> {
+      Thread thread = new Thread(runnable, "client-push-resolver");
+      thread.setDaemon(true);
+      return thread;
+    });
   }
 
   public static ClientConnectionManager getInstance() {
@@ -29,23 +194,576 @@ public class ClientConnectionManager {
   }
 
   /**
-   * Sets up a connection with the given client.
+   * Sets up a connection with the given client, replacing any connection the user already had.
+   * The connection is opened asynchronously, after the host is resolved off the calling thread; events sent in
+   * the meantime are queued.
+   * If the connection info has the sequence number of the last event the client received, the events sent
+   * after it are sent first.
    *
    * @param username non-null string of the user who wants to connect with the server.
    * @param connectionInfo non-null object containing host and port of the client.
    */
   public void setUpConnection(String username, ConnectionInfo connectionInfo) {
+    LOGGER.info("Setting up push connection to {} at {}:{} after {}", username, connectionInfo.getHost(),
+            connectionInfo.getPort(), connectionInfo.getLastSequence());
+    SocketConnection connection = new SocketConnection(username,
+            InetSocketAddress.createUnresolved(connectionInfo.getHost(), connectionInfo.getPort()));
+    Connection previous = register(connection, connectionInfo.getLastSequence());
+    if (previous != null) {
+      execute(() -> close(previous));
+    }
+    resolver.execute(() -> {
+      InetSocketAddress address = new InetSocketAddress(connection.address.getHostString(),
+              connection.address.getPort());
+      execute(() -> connect(connection, address));
+    });
+  }
+
+  /**
+   * Streams the user's events as Server-Sent Events on a request the caller put in asynchronous mode,
+   * replacing any connection the user already had. Returns immediately; the request stays open until the client
+   * goes away or the connection is replaced.
+   *
+   * @param username non-null string of the user who opened the stream.
+   * @param asyncContext started asynchronous context of the streaming request.
+   * @param lastSequence sequence number of the last event the client received, or null for a new client.
+   * @throws IOException if the response output can't be obtained.
+   */
+  public void setUpStream(String username, AsyncContext asyncContext, Long lastSequence) throws IOException {
+    LOGGER.info("Setting up event stream to {} after {}", username, lastSequence);
+    asyncContext.setTimeout(0);
+    StreamConnection connection = new StreamConnection(username, asyncContext,
+            asyncContext.getResponse().getOutputStream());
+    Connection previous = register(connection, lastSequence);
+    asyncContext.addListener(new AsyncListener() {
+      @Override
+      public void onComplete(AsyncEvent event) {
+        execute(() -> disconnect(connection));
+      }
+
+      @Override
+      public void onTimeout(AsyncEvent event) {
+        execute(() -> disconnect(connection));
+      }
+
+      @Override
+      public void onError(AsyncEvent event) {
+        execute(() -> disconnect(connection));
+      }
 
+      @Override
+      public void onStartAsync(AsyncEvent event) {
+      }
+    });
+    if (previous != null) {
+      execute(() -> close(previous));
+    }
+    connection.out.setWriteListener(new WriteListener() {
+      @Override
+      public void onWritePossible() {
+        execute(() -> startFrame(connection));
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        LOGGER.info("Event stream to {} lost {}", username, t.toString());
+        execute(() -> disconnect(connection));
+      }
+    });
   }
 
   /**
-   * Sends data to the given user on the connection already established.
+   * Queues data to be sent to the given user on the connection already established.
+   * Returns without waiting for the data to be written. Users without a connection don't receive the data,
+   * nor do slow consumers (see {@link SlowConsumerPolicy}).
    *
    * @param username non-null string of the user to send data to.
-   * @param data non-null object containing the data to send.
-   * @throws UserNotFoundException if the user did not already establish a connection.
+   * @param data non-null Game, Move or String (a game cookie) to send.
+   * @throws IllegalArgumentException if the data can't be pushed.
    */
-  public void sendData(String username, Object data) throws UserNotFoundException {
+  public void sendData(String username, Object data) {
+    int size = PushFrameEncoder.eventLength(data);
+    ReplayBuffer replay = replayBuffer(username);
+    Connection connection;
+    int queued;
+    synchronized (replay) {
+      long sequence = replay.append(data);
+      connection = connections.get(username);
+      if (connection == null) {
+        LOGGER.info("{} has no push connection, keeping {} for replay only", username, data);
+        eventsUndeliverable.increment();
+        return;
+      }
+      queued = connection.offer(new PushEvent(sequence, data), size, maxQueuedEvents, highWatermarkBytes,
+              lowWatermarkBytes);
+    }
+    if (queued == Connection.SATURATED) {
+      LOGGER.warn("{} is a slow consumer holding {} bytes, applying {}", username, connection.pendingBytes(),
+              slowConsumerPolicy);
+      slowConsumers.increment();
+      eventsDropped.increment();
+      if (slowConsumerPolicy == SlowConsumerPolicy.DISCONNECT && connections.remove(username, connection)) {
+        evictions.increment();
+        execute(() -> close(connection));
+      }
+    }
+    else if (queued == Connection.DROPPED) {
+      LOGGER.debug("{} is still a slow consumer, dropping {}", username, data);
+      eventsDropped.increment();
+    }
+    else if (queued == 1) {
+      long flushAt = System.currentTimeMillis() + flushIntervalMillis;
+      execute(() -> {
+        if (!connection.flushScheduled) {
+          connection.flushScheduled = true;
+          connection.flushAt = flushAt;
+          scheduledFlushes.addLast(connection);
+        }
+      });
+    }
+  }
 
+  /**
+   * Makes the connection the user's current one and queues the events the client missed.
+   * Holding the replay lock keeps events sent concurrently from being missed or sent twice.
+   *
+   * @param lastSequence sequence number of the last event the client received, or null for a new client.
+   * @return the connection replaced, or null.
+   */
+  private Connection register(Connection connection, Long lastSequence) {
+    ReplayBuffer replay = replayBuffer(connection.username);
+    synchronized (replay) {
+      Connection previous = connections.put(connection.username, connection);
+      if (lastSequence != null) {
+        List<PushEvent> missed = replay.since(lastSequence);
+        if (missed == null) {
+          LOGGER.info("Events of {} after {} are no longer kept, resetting", connection.username, lastSequence);
+          resets.increment();
+          connection.requeue(new PushEvent(replay.latest(), PushEvent.RESET),
+                  PushFrameEncoder.eventLength(PushEvent.RESET));
+        }
+        else {
+          for (PushEvent event : missed) {
+            connection.requeue(event, PushFrameEncoder.eventLength(event.data));
+          }
+          eventsReplayed.add(missed.size());
+        }
+      }
+      return previous;
+    }
+  }
+
+  private ReplayBuffer replayBuffer(String username) {
+    ReplayBuffer replay = replays.getAndRefresh(username);
+    if (replay == null) {
+      replay = replays.putIfAbsent(username,
+              new ReplayBuffer(replayEvents, System.currentTimeMillis() * SEQUENCES_PER_MILLI));
+    }
+    return replay;
+  }
+
+  /**
+   * Stops the event loop and the resolver threads, and closes every connection.
+   */
+  synchronized void close() {
+    running = false;
+    resolver.shutdownNow();
+    if (selector != null) {
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Encodes the events into a pooled buffer, or a dedicated one if the frame doesn't fit.
+   *
+   * @return buffer holding the frame, ready to be written.
+   */
+  private ByteBuffer encodeFrame(List<PushEvent> events) {
+    try {
+      int length = PushFrameEncoder.frameLength(events);
+      ByteBuffer frame = length <= frameBuffers.bufferBytes() ? frameBuffers.acquire() : ByteBuffer.allocate(length);
+      PushFrameEncoder.encode(events, frame);
+      frame.flip();
+      return frame;
+    }
+    catch (IllegalArgumentException e) {
+      LOGGER.error("Could not encode {} {}", events, e);
+      throw new ServerException(e);
+    }
+  }
+
+  /**
+   * Encodes each event as an SSE message whose id is its sequence number. Resets are sent as "reset" events.
+   *
+   * @return UTF-8 bytes of the messages.
+   */
+  private byte[] encodeMessages(List<PushEvent> events) {
+    try {
+      StringBuilder messages = new StringBuilder();
+      for (PushEvent event : events) {
+        messages.append("id: ").append(event.sequence).append('\n');
+        if (event.isReset()) {
+          messages.append("event: reset\ndata: {}\n\n");
+        }
+        else {
+          messages.append("data: ").append(objectMapper.writeValueAsString(event.data)).append("\n\n");
+        }
+      }
+      return messages.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    catch (JsonProcessingException e) {
+      LOGGER.error("Could not encode {} {}", events, e);
+      throw new ServerException(e);
+    }
+  }
+
+  private void execute(Runnable task) {
+    start();
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  private synchronized void start() {
+    if (eventLoop != null) {
+      return;
+    }
+    try {
+      selector = Selector.open();
+    }
+    catch (IOException e) {
+      LOGGER.error("Could not open the push selector {}", e);
+      throw new ServerException(e);
+    }
+    running = true;
+    eventLoop = new Thread(this::run, "client-push");
+    eventLoop.setDaemon(true);
+    eventLoop.start();
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        Connection next = scheduledFlushes.peekFirst();
+        if (next == null) {
+          selector.select();
+        }
+        else {
+          selector.select(Math.max(1, next.flushAt - System.currentTimeMillis()));
+        }
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+        long now = System.currentTimeMillis();
+        while (!scheduledFlushes.isEmpty() && scheduledFlushes.peekFirst().flushAt <= now) {
+          Connection connection = scheduledFlushes.pollFirst();
+          connection.flushScheduled = false;
+          startFrame(connection);
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          handle(key, (SocketConnection) key.attachment());
+        }
+      }
+      catch (IOException | RuntimeException e) {
+        LOGGER.error("Error in the push event loop {}", e);
+      }
+    }
+    for (Connection connection : connections.values()) {
+      close(connection);
+    }
+    try {
+      selector.close();
+    }
+    catch (IOException e) {
+      LOGGER.warn("Could not close the push selector {}", e);
+    }
+  }
+
+  private void handle(SelectionKey key, SocketConnection connection) {
+    try {
+      if (key.isValid() && key.isConnectable()) {
+        connection.channel.finishConnect();
+        LOGGER.info("Push connection to {} established", connection.username);
+        key.interestOps(SelectionKey.OP_READ);
+        startFrame(connection);
+      }
+      if (key.isValid() && key.isWritable()) {
+        flush(connection);
+      }
+      if (key.isValid() && key.isReadable()) {
+        readBuffer.clear();
+        if (connection.channel.read(readBuffer) == -1) {
+          throw new IOException("Closed by client");
+        }
+      }
+    }
+    catch (IOException e) {
+      LOGGER.info("Push connection to {} lost {}", connection.username, e.toString());
+      disconnect(connection);
+    }
+  }
+
+  /**
+   * Opens the connection to the resolved address of the client.
+   *
+   * @param address address of the client, resolved by the resolver threads.
+   */
+  private void connect(SocketConnection connection, InetSocketAddress address) {
+    if (connections.get(connection.username) != connection) {
+      return;
+    }
+    if (address.isUnresolved()) {
+      LOGGER.info("Could not resolve {} for {}", connection.address, connection.username);
+      disconnect(connection);
+      return;
+    }
+    try {
+      SocketChannel channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      connection.channel = channel;
+      boolean connected = channel.connect(address);
+      connection.key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT,
+              connection);
+      if (connected) {
+        startFrame(connection);
+      }
+    }
+    catch (IOException e) {
+      LOGGER.info("Could not connect to {} at {} {}", connection.username, address, e.toString());
+      disconnect(connection);
+    }
+  }
+
+  /**
+   * Coalesces every event queued for the connection into the next frame, unless the connection can't take it yet;
+   * the events are then picked up once it can.
+   */
+  private void startFrame(Connection connection) {
+    if (connection instanceof SocketConnection) {
+      startFrame((SocketConnection) connection);
+    }
+    else {
+      startFrame((StreamConnection) connection);
+    }
+  }
+
+  /**
+   * Waits while a frame is still being written or the connection isn't established yet.
+   */
+  private void startFrame(SocketConnection connection) {
+    if (connection.frame != null || connection.key == null || !connection.key.isValid()
+            || !connection.channel.isConnected()) {
+      return;
+    }
+    List<PushEvent> events = connection.drain();
+    if (!events.isEmpty()) {
+      connection.frame = encodeFrame(events);
+      connection.unsentBytes = connection.frame.remaining();
+      eventsSent.add(events.size());
+      connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+  }
+
+  /**
+   * Waits while the servlet output isn't ready; the container calls back once it is.
+   */
+  private void startFrame(StreamConnection connection) {
+    if (connection.closed || !connection.out.isReady()) {
+      return;
+    }
+    connection.unsentBytes = 0;
+    List<PushEvent> events = connection.drain();
+    if (events.isEmpty()) {
+      return;
+    }
+    byte[] message = encodeMessages(events);
+    try {
+      connection.out.write(message);
+      if (connection.out.isReady()) {
+        connection.out.flush();
+      }
+      if (!connection.out.isReady()) {
+        connection.unsentBytes = message.length;
+      }
+    }
+    catch (IOException e) {
+      LOGGER.info("Event stream to {} lost {}", connection.username, e.toString());
+      disconnect(connection);
+      return;
+    }
+    eventsSent.add(events.size());
+    bytesSent.add(message.length);
+    framesSent.increment();
+  }
+
+  private void flush(SocketConnection connection) throws IOException {
+    ByteBuffer frame = connection.frame;
+    bytesSent.add(connection.channel.write(frame));
+    connection.unsentBytes = frame.remaining();
+    if (frame.hasRemaining()) {
+      return;
+    }
+    framesSent.increment();
+    frameBuffers.release(frame);
+    connection.frame = null;
+    connection.key.interestOps(SelectionKey.OP_READ);
+    startFrame(connection);
+  }
+
+  private void disconnect(Connection connection) {
+    connections.remove(connection.username, connection);
+    close(connection);
+  }
+
+  private void close(Connection connection) {
+    if (connection instanceof SocketConnection) {
+      close((SocketConnection) connection);
+    }
+    else {
+      close((StreamConnection) connection);
+    }
+  }
+
+  private void close(SocketConnection connection) {
+    if (connection.key != null) {
+      connection.key.cancel();
+    }
+    if (connection.frame != null) {
+      frameBuffers.release(connection.frame);
+      connection.frame = null;
+    }
+    if (connection.channel != null) {
+      try {
+        connection.channel.close();
+      }
+      catch (IOException e) {
+        LOGGER.warn("Could not close push connection to {} {}", connection.username, e);
+      }
+    }
+  }
+
+  private void close(StreamConnection connection) {
+    if (connection.closed) {
+      return;
+    }
+    connection.closed = true;
+    try {
+      connection.asyncContext.complete();
+    }
+    catch (IllegalStateException e) {
+      LOGGER.debug("Event stream to {} already completed", connection.username);
+    }
+  }
+
+  /**
+   * Connection to one user. The queue of pending events is shared with request threads;
+   * everything else is only touched by the event loop.
+   */
+  private static class Connection {
+
+    static final int SATURATED = -1;
+    static final int DROPPED = 0;
+
+    final String username;
+    private List<PushEvent> events;
+    private long queuedBytes;
+    private boolean saturated;
+    volatile long unsentBytes;
+    /**
+     * Set while the connection is in scheduledFlushes, whose order relies on flushAt not changing meanwhile.
+     * A connection drained before its flush is due keeps its place; the earlier flush picks up later events.
+     */
+    boolean flushScheduled;
+    long flushAt;
+
+    Connection(String username) {
+      this.username = username;
+      events = new ArrayList<>();
+    }
+
+    /**
+     * Appends an event unless the connection is a slow consumer: it holds maxEvents events, or would hold more
+     * than highWatermark bytes with this event. A slow consumer takes events again once it holds no more than
+     * lowWatermark bytes. An event is always accepted by a connection that holds nothing.
+     *
+     * @param size encoded size of the event.
+     * @return number of queued events including this one, {@link #SATURATED} if this event made the connection a
+     * slow consumer, or {@link #DROPPED} if it already was one.
+     */
+    synchronized int offer(PushEvent event, int size, int maxEvents, long highWatermark, long lowWatermark) {
+      long pending = queuedBytes + unsentBytes;
+      if (saturated) {
+        if (pending > lowWatermark || events.size() >= maxEvents) {
+          return DROPPED;
+        }
+        saturated = false;
+      }
+      if (pending > 0 && (events.size() >= maxEvents || pending + size > highWatermark)) {
+        saturated = true;
+        return SATURATED;
+      }
+      events.add(event);
+      queuedBytes += size;
+      return events.size();
+    }
+
+    /**
+     * Appends an event the client missed, regardless of the watermarks.
+     */
+    synchronized void requeue(PushEvent event, int size) {
+      events.add(event);
+      queuedBytes += size;
+    }
+
+    synchronized List<PushEvent> drain() {
+      List<PushEvent> drained = events;
+      events = new ArrayList<>();
+      queuedBytes = 0;
+      return drained;
+    }
+
+    synchronized int queued() {
+      return events.size();
+    }
+
+    synchronized long pendingBytes() {
+      return queuedBytes + unsentBytes;
+    }
+  }
+
+  /**
+   * Connection the server opens to a host and port the client listens on.
+   */
+  private static final class SocketConnection extends Connection {
+
+    final InetSocketAddress address;
+    SocketChannel channel;
+    SelectionKey key;
+    ByteBuffer frame;
+
+    SocketConnection(String username, InetSocketAddress address) {
+      super(username);
+      this.address = address;
+    }
+  }
+
+  /**
+   * Server-Sent Events stream on an asynchronous request the client opened.
+   */
+  private static final class StreamConnection extends Connection {
+
+    final AsyncContext asyncContext;
+    final ServletOutputStream out;
+    boolean closed;
+
+    StreamConnection(String username, AsyncContext asyncContext, ServletOutputStream out) {
+      super(username);
+      this.asyncContext = asyncContext;
+      this.out = out;
+    }
   }
 }
@@ -2,35 +2,94 @@ package manager;
 
 import dao.GameDao;
 import dao.UserDao;
+import exception.ServerException;
 import exception.game.GameNotFoundException;
 import exception.game.InvalidGameCookieException;
 import exception.user.InvalidUserCookieException;
 import exception.user.UserNotFoundException;
-import model.Game;
 import model.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.Base64;
+
+/**
+ * Issues and verifies signed cookies of the form {@code qualifier:expiry:signature}.
+ * The signature is an HMAC-SHA256 of the cookie type, qualifier and expiry under a server key, so game cookies are
+ * verified without any DAO lookup. User cookies also sign the user's cookie version, which is bumped on logout and
+ * password change, so verifying them takes one in-memory user lookup and revoked cookies are rejected.
+ */
 public class CookieManager {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(CookieManager.class);
 
+  static final String KEY_PROPERTY = "chess.cookie.key";
+  static final String USER_TTL_PROPERTY = "chess.cookie.userTtlMillis";
+  static final String GAME_TTL_PROPERTY = "chess.cookie.gameTtlMillis";
+
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+  private static final int KEY_LENGTH = 32;
+  private static final long DEFAULT_USER_TTL_MILLIS = 24L * 60 * 60 * 1000;
+  private static final long DEFAULT_GAME_TTL_MILLIS = 30L * 24 * 60 * 60 * 1000;
+  private static final char USER_TYPE = 'u';
+  private static final char GAME_TYPE = 'g';
+  private static final int NO_VERSION = 0;
+
   private final UserDao userDao;
   private final GameDao gameDao;
+  private final Clock clock;
+  private final long userTtlMillis;
+  private final long gameTtlMillis;
+  private final ThreadLocal<Mac> macs;
+  private final Base64.Encoder encoder;
 
   private static CookieManager instance;
 
   private CookieManager() {
-    userDao = UserDao.getInstance();
-    gameDao = GameDao.getInstance();
+    this(UserDao.getInstance(), GameDao.getInstance(), loadKey(), Clock.systemUTC(),
+            Long.getLong(USER_TTL_PROPERTY, DEFAULT_USER_TTL_MILLIS),
+            Long.getLong(GAME_TTL_PROPERTY, DEFAULT_GAME_TTL_MILLIS));
   }
 
   CookieManager(UserDao userDao, GameDao gameDao) {
+    this(userDao, gameDao, randomKey(), Clock.systemUTC(), DEFAULT_USER_TTL_MILLIS, DEFAULT_GAME_TTL_MILLIS);
+  }
+
+  /**
+   * Constructor for unit testing.
+   *
+   * @param userDao UserDao used to check that a user exists before issuing a cookie.
+   * @param gameDao GameDao used to check that a game exists before issuing a cookie.
+   * @param key secret key the cookies are signed with.
+   * @param clock clock the expiry of the cookies is based on.
+   * @param userTtlMillis lifetime of user cookies.
+   * @param gameTtlMillis lifetime of game cookies.
+   */
+  CookieManager(UserDao userDao, GameDao gameDao, byte[] key, Clock clock, long userTtlMillis, long gameTtlMillis) {
     this.userDao = userDao;
     this.gameDao = gameDao;
+    this.clock = clock;
+    this.userTtlMillis = userTtlMillis;
+    this.gameTtlMillis = gameTtlMillis;
+    SecretKeySpec secretKey = new SecretKeySpec(key, MAC_ALGORITHM);
+    macs = ThreadLocal.withInitial(() -> {
+      try {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(secretKey);
+        return mac;
+      }
+      catch (GeneralSecurityException e) {
+        LOGGER.error("Could not create the cookie MAC {}", e);
+        throw new ServerException(e);
+      }
+    });
+    encoder = Base64.getUrlEncoder().withoutPadding();
   }
 
   public static CookieManager getInstance() {
@@ -43,54 +102,27 @@ public class CookieManager {
   public String makeUserCookie(String username) throws UserNotFoundException {
     LOGGER.info("Creating cookie for user {}", username);
     User user = userDao.getUser(username);
-    String password = user.getPassword();
-    String email = user.getEmail();
-    String toHash = username + password + email;
-    String hash = hash(toHash);
-    LOGGER.info("Cookie created: {}", hash);
-    return username + ":" + hash;
-  }
-
-  private String hash(String toHash) {
-    MessageDigest sha256;
-    try {
-      sha256 = MessageDigest.getInstance("SHA-256");
-      sha256.reset();
-      sha256.update(toHash.getBytes());
-      byte[] fullHash = sha256.digest();
-      return new String(fullHash);
-    }
-    catch (NoSuchAlgorithmException e) {
-      LOGGER.error("no such algorithm {}", e);
-      return null;
-    }
+    String cookie = sign(USER_TYPE, username, user.getCookieVersion(), clock.millis() + userTtlMillis);
+    LOGGER.info("Cookie created: {}", cookie);
+    return cookie;
   }
 
   public void validateUserCookie(String cookie) throws UserNotFoundException, InvalidUserCookieException {
-    String cookieUserName = getQualifier(cookie);
-    String tempCookie = makeUserCookie(cookieUserName);
-    if (!tempCookie.equals(cookie)) {
+    if (!isValid(USER_TYPE, cookie)) {
       throw new InvalidUserCookieException("Invalid User Cookie");
     }
   }
 
   public String makeGameCookie(int gameID) throws GameNotFoundException {
     LOGGER.info("Creating cookie for game {}", gameID);
-    Game game = gameDao.getGame(gameID);
-    String toHash = game.getPlayer1() + game.getPlayer2();
-    String hash = hash(toHash);
-    LOGGER.info("Cookie created: {}", hash);
-    return gameID + ":" + hash;
+    gameDao.getGame(gameID);
+    String cookie = sign(GAME_TYPE, Integer.toString(gameID), NO_VERSION, clock.millis() + gameTtlMillis);
+    LOGGER.info("Cookie created: {}", cookie);
+    return cookie;
   }
 
   void validateGameCookie(String cookie) throws GameNotFoundException, InvalidGameCookieException {
-    int indexOfColon = cookie.indexOf(':');
-    if (indexOfColon == -1) {
-      throw new InvalidGameCookieException("Invalid Game Cookie");
-    }
-    int cookieGameId = Integer.parseInt(cookie.substring(0, indexOfColon));
-    String tempCookie = makeGameCookie(cookieGameId);
-    if (!tempCookie.equals(cookie)) {
+    if (!isValid(GAME_TYPE, cookie)) {
       throw new InvalidGameCookieException("Invalid Game Cookie");
     }
   }
@@ -108,4 +140,76 @@ public class CookieManager {
     }
     return cookie.substring(0, indexOfColon);
   }
+
+  private String sign(char type, String qualifier, int version, long expiry) {
+    String payload = qualifier + ':' + Long.toString(expiry, Character.MAX_RADIX);
+    return payload + ':' + signature(type, version, payload);
+  }
+
+  private boolean isValid(char type, String cookie) {
+    int lastColon = cookie.lastIndexOf(':');
+    int firstColon = cookie.indexOf(':');
+    if (firstColon <= 0 || lastColon == firstColon) {
+      return false;
+    }
+    long expiry;
+    try {
+      expiry = Long.parseLong(cookie.substring(firstColon + 1, lastColon), Character.MAX_RADIX);
+    }
+    catch (NumberFormatException e) {
+      return false;
+    }
+    if (expiry < clock.millis()) {
+      return false;
+    }
+    int version = NO_VERSION;
+    if (type == USER_TYPE) {
+      User user;
+      try {
+        user = userDao.getUser(cookie.substring(0, firstColon));
+      }
+      catch (UserNotFoundException e) {
+        return false;
+      }
+      version = user.getCookieVersion();
+    }
+    String expected = signature(type, version, cookie.substring(0, lastColon));
+    return constantTimeEquals(expected, cookie, lastColon + 1);
+  }
+
+  private String signature(char type, int version, String payload) {
+    Mac mac = macs.get();
+    mac.update((byte) type);
+    mac.update((byte) (version >>> 24));
+    mac.update((byte) (version >>> 16));
+    mac.update((byte) (version >>> 8));
+    mac.update((byte) version);
+    return encoder.encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static boolean constantTimeEquals(String expected, String cookie, int offset) {
+    if (cookie.length() - offset != expected.length()) {
+      return false;
+    }
+    int difference = 0;
+    for (int i = 0; i < expected.length(); i++) {
+      difference |= expected.charAt(i) ^ cookie.charAt(offset + i);
+    }
+    return difference == 0;
+  }
+
+  private static byte[] loadKey() {
+    String key = System.getProperty(KEY_PROPERTY);
+    if (key == null) {
+      LOGGER.warn("No {} configured, cookies will not survive a restart", KEY_PROPERTY);
+      return randomKey();
+    }
+    return Base64.getDecoder().decode(key);
+  }
+
+  private static byte[] randomKey() {
+    byte[] key = new byte[KEY_LENGTH];
+    new SecureRandom().nextBytes(key);
+    return key;
+  }
 }
@@ -0,0 +1,113 @@
+package manager;
+
+import exception.ServerException;
+
+import javax.crypto.spec.DHParameterSpec;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads, writes and generates Diffie-Hellman groups.
+ * A group file holds one group per line as the generator and the prime in hexadecimal separated by a colon;
+ * blank lines and lines starting with '#' are ignored.
+ */
+final class DHGroups {
+
+  static final String BUNDLED_RESOURCE = "/dh-groups.txt";
+
+  private static final BigInteger FIVE = BigInteger.valueOf(5);
+  private static final int CERTAINTY = 100;
+
+  private DHGroups() {}
+
+  /**
+   * Reads the groups shipped with the server.
+   *
+   * @return bundled groups.
+   */
+  static List<DHParameterSpec> readBundled() {
+    try (InputStream in = DHGroups.class.getResourceAsStream(BUNDLED_RESOURCE)) {
+      if (in == null) {
+        throw new IOException(BUNDLED_RESOURCE + " is missing");
+      }
+      return read(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+    }
+    catch (IOException | RuntimeException e) {
+      throw new ServerException(e);
+    }
+  }
+
+  static List<DHParameterSpec> read(Path file) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return read(reader);
+    }
+  }
+
+  static List<DHParameterSpec> read(BufferedReader reader) throws IOException {
+    List<DHParameterSpec> groups = new ArrayList<>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      int colon = line.indexOf(':');
+      if (colon == -1) {
+        throw new IOException("Malformed Diffie-Hellman group: " + line);
+      }
+      BigInteger g = new BigInteger(line.substring(0, colon), 16);
+      BigInteger p = new BigInteger(line.substring(colon + 1), 16);
+      groups.add(new DHParameterSpec(p, g));
+    }
+    return groups;
+  }
+
+  /**
+   * Writes the groups to a file, replacing it atomically.
+   *
+   * @param file destination file.
+   * @param groups groups to write.
+   * @throws IOException when the file can't be written.
+   */
+  static void write(Path file, List<DHParameterSpec> groups) throws IOException {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+      for (DHParameterSpec group : groups) {
+        writer.write(group.getG().toString(16) + ':' + group.getP().toString(16));
+        writer.newLine();
+      }
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Generates a group whose prime is a safe prime p = 2q + 1 and whose generator 5 generates all of Z_p*.
+   * This takes seconds for a 500-bit prime, so it shouldn't run on a request thread.
+   *
+   * @param bits bit length of the prime.
+   * @param random source of randomness.
+   * @return new group with generator 5.
+   */
+  static DHParameterSpec generate(int bits, SecureRandom random) {
+    while (true) {
+      BigInteger q = BigInteger.probablePrime(bits - 1, random);
+      BigInteger p = q.shiftLeft(1).add(BigInteger.ONE);
+      int residue = p.mod(FIVE).intValue();
+      // 5 is a quadratic non-residue, and so has order p - 1, exactly when p is 2 or 3 mod 5.
+      if (p.bitLength() == bits && (residue == 2 || residue == 3) && p.isProbablePrime(CERTAINTY)) {
+        return new DHParameterSpec(p, FIVE);
+      }
+    }
+  }
+}
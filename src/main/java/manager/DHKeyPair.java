@@ -0,0 +1,17 @@
+package manager;
+
+import java.math.BigInteger;
+
+/**
+ * A finite-field Diffie-Hellman private exponent and the matching public value g^exponent mod p.
+ */
+final class DHKeyPair {
+
+  final BigInteger privateExponent;
+  final BigInteger publicValue;
+
+  DHKeyPair(BigInteger privateExponent, BigInteger publicValue) {
+    this.privateExponent = privateExponent;
+    this.publicValue = publicValue;
+  }
+}
@@ -0,0 +1,58 @@
+package manager;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pool of same-sized direct buffers, so frames are encoded without allocating a buffer each time.
+ * Not thread-safe: it is only used from the push event loop.
+ */
+class DirectBufferPool {
+
+  private final int bufferBytes;
+  private final int maxPooled;
+  private final Deque<ByteBuffer> buffers;
+
+  /**
+   * Creates an empty pool.
+   *
+   * @param bufferBytes capacity of every pooled buffer.
+   * @param maxPooled maximum number of idle buffers kept; extra released buffers are left to the GC.
+   */
+  DirectBufferPool(int bufferBytes, int maxPooled) {
+    this.bufferBytes = bufferBytes;
+    this.maxPooled = maxPooled;
+    buffers = new ArrayDeque<>();
+  }
+
+  int bufferBytes() {
+    return bufferBytes;
+  }
+
+  /**
+   * Gets a cleared buffer of bufferBytes capacity.
+   *
+   * @return an idle pooled buffer, or a new one if none is idle.
+   */
+  ByteBuffer acquire() {
+    ByteBuffer buffer = buffers.pollFirst();
+    return buffer == null ? ByteBuffer.allocateDirect(bufferBytes) : buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool. Buffers that don't come from the pool are ignored.
+   *
+   * @param buffer buffer that is no longer used.
+   */
+  void release(ByteBuffer buffer) {
+    if (buffer.isDirect() && buffer.capacity() == bufferBytes && buffers.size() < maxPooled) {
+      buffer.clear();
+      buffers.addFirst(buffer);
+    }
+  }
+
+  int idle() {
+    return buffers.size();
+  }
+}
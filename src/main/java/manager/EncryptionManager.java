@@ -4,54 +4,141 @@ import exception.ServerException;
 
 import exception.user.UserNotFoundException;
 import model.DHParams;
+import model.ECDHParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.SecretKey;
 import javax.crypto.spec.DHParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public class EncryptionManager {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(EncryptionManager.class);
 
   private static final int RANDOM_NUMBER_BIT_LENGTH = 500;
+  private static final int FIXED_BASE_WINDOW_BITS = 6;
+  private static final int DEFAULT_KEY_POOL_SIZE = 256;
+  private static final int DEFAULT_MAX_SESSIONS = 100000;
+  private static final long DEFAULT_SESSION_TTL_MILLIS = 10 * 60 * 1000;
+  private static final int SHARED_KEY_LENGTH = 16;
+  static final String KEY_POOL_SIZE_PROPERTY = "chess.dh.keyPoolSize";
+  static final String MAX_SESSIONS_PROPERTY = "chess.dh.maxSessions";
+  static final String SESSION_TTL_PROPERTY = "chess.dh.sessionTtlMillis";
+  static final String OFF_HEAP_KEYS_PROPERTY = "chess.dh.offHeapKeys";
+  static final String GROUPS_FILE_PROPERTY = "chess.dh.groupsFile";
   static final String ENCRYPTION_MODE = "AES/CBC/PKCS5Padding";
   static final String ENCRYPTION_ALGORITHM = "AES";
+  static final String EC_CURVE = "secp256r1";
+  private static final String EC_ALGORITHM = "EC";
+  private static final String EC_AGREEMENT = "ECDH";
+  private static final String KEY_DERIVATION_DIGEST = "SHA-256";
 
-  private Cipher cipher;
-  AlgorithmParameterSpec parameterSpec;
-  private DHParameterSpec params;
+  private final ThreadLocal<Cipher> ciphers;
+  private final ThreadLocal<KeyPairGenerator> ecKeyPairGenerators;
+  private final ThreadLocal<KeyFactory> ecKeyFactories;
+  private final ThreadLocal<KeyAgreement> ecKeyAgreements;
+  final AlgorithmParameterSpec parameterSpec;
+  private final DHParameterSpec params;
+  private final FixedBaseModExp generatorPowers;
+  private final KeyPairPool<DHKeyPair> keyPairPool;
+  private final KeyPairPool<KeyPair> ecKeyPairPool;
 
-  private final Map<String, BigInteger> privateExponents;
-  final Map<String, byte[]> sharedKeys;
+  private final ExpiringCache<DHKeyPair> keyPairs;
+  private final ExpiringCache<KeyPair> ecKeyPairs;
+  final SharedKeyStore sharedKeys;
 
   private static EncryptionManager instance;
 
   EncryptionManager() {
-    sharedKeys = new HashMap<>();
-    privateExponents = new HashMap<>();
+    this(MetricsManager.getInstance(), Integer.getInteger(KEY_POOL_SIZE_PROPERTY, DEFAULT_KEY_POOL_SIZE),
+            Integer.getInteger(MAX_SESSIONS_PROPERTY, DEFAULT_MAX_SESSIONS),
+            Long.getLong(SESSION_TTL_PROPERTY, DEFAULT_SESSION_TTL_MILLIS), Boolean.getBoolean(OFF_HEAP_KEYS_PROPERTY));
+  }
 
-    try {
-      BigInteger g = BigInteger.valueOf(5);
-      BigInteger p = BigInteger.probablePrime(RANDOM_NUMBER_BIT_LENGTH, new SecureRandom());
-      params = new DHParameterSpec(p, g);
-      byte[] IV = {0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0};
-      parameterSpec = new IvParameterSpec(IV);
-      cipher = Cipher.getInstance(ENCRYPTION_MODE);
-    }
-    catch (GeneralSecurityException e){
-      LOGGER.error("Something went wrong when creating the encryption manager");
-      throw new ServerException(e);
-    }
+  /**
+   * Constructor for unit testing.
+   *
+   * @param metricsManager MetricsManager the key pool reports to.
+   * @param keyPoolSize number of key pairs generated ahead of time.
+   */
+  EncryptionManager(MetricsManager metricsManager, int keyPoolSize) {
+    this(metricsManager, keyPoolSize, DEFAULT_MAX_SESSIONS, DEFAULT_SESSION_TTL_MILLIS, false);
+  }
+
+  /**
+   * Creates an EncryptionManager whose per-user handshake state is bounded and expires.
+   *
+   * @param metricsManager MetricsManager the key pool and session stores report to.
+   * @param keyPoolSize number of key pairs generated ahead of time.
+   * @param maxSessions maximum number of users whose key pair, and separately shared key, are kept.
+   * @param sessionTtlMillis time a key pair or shared key is kept after it was handed out.
+   * @param offHeapKeys whether shared keys are stored off the Java heap.
+   */
+  EncryptionManager(MetricsManager metricsManager, int keyPoolSize, int maxSessions, long sessionTtlMillis,
+                    boolean offHeapKeys) {
+    Clock clock = Clock.systemUTC();
+    keyPairs = new ExpiringCache<>(maxSessions, sessionTtlMillis, clock, keyPair -> {},
+            metricsManager.counter("encryption.keyPairs.evicted"), metricsManager.counter("encryption.keyPairs.expired"));
+    metricsManager.registerGauge("encryption.keyPairs.size", keyPairs::size);
+    ecKeyPairs = new ExpiringCache<>(maxSessions, sessionTtlMillis, clock, keyPair -> {},
+            metricsManager.counter("encryption.ecKeyPairs.evicted"),
+            metricsManager.counter("encryption.ecKeyPairs.expired"));
+    metricsManager.registerGauge("encryption.ecKeyPairs.size", ecKeyPairs::size);
+    sharedKeys = new SharedKeyStore(ENCRYPTION_ALGORITHM, SHARED_KEY_LENGTH, maxSessions, sessionTtlMillis,
+            offHeapKeys, clock, metricsManager);
+
+    SecureRandom random = new SecureRandom();
+    params = loadGroup(random);
+    generatorPowers = new FixedBaseModExp(params.getG(), params.getP(), RANDOM_NUMBER_BIT_LENGTH,
+            FIXED_BASE_WINDOW_BITS);
+    byte[] IV = {0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0};
+    parameterSpec = new IvParameterSpec(IV);
+    ciphers = perThread(() -> Cipher.getInstance(ENCRYPTION_MODE));
+    ecKeyPairGenerators = perThread(() -> {
+      KeyPairGenerator generator = KeyPairGenerator.getInstance(EC_ALGORITHM);
+      generator.initialize(new ECGenParameterSpec(EC_CURVE), random);
+      return generator;
+    });
+    ecKeyFactories = perThread(() -> KeyFactory.getInstance(EC_ALGORITHM));
+    ecKeyAgreements = perThread(() -> KeyAgreement.getInstance(EC_AGREEMENT));
+    keyPairPool = new KeyPairPool<>("dh-key-pool", generatorPowers::precompute, () -> {
+      BigInteger privateExponent = BigInteger.probablePrime(RANDOM_NUMBER_BIT_LENGTH, random);
+      return new DHKeyPair(privateExponent, generatorPowers.pow(privateExponent));
+    }, keyPoolSize, metricsManager.counter("encryption.keyPool.refilled"),
+            metricsManager.counter("encryption.keyPool.misses"));
+    metricsManager.registerGauge("encryption.keyPool.depth", keyPairPool::size);
+    ecKeyPairPool = new KeyPairPool<>("ecdh-key-pool", () -> {}, () -> ecKeyPairGenerators.get().generateKeyPair(),
+            keyPoolSize, metricsManager.counter("encryption.ecKeyPool.refilled"),
+            metricsManager.counter("encryption.ecKeyPool.misses"));
+    metricsManager.registerGauge("encryption.ecKeyPool.depth", ecKeyPairPool::size);
+    keyPairPool.start();
+    ecKeyPairPool.start();
   }
 
   public static EncryptionManager getInstance() {
@@ -63,23 +150,24 @@ public class EncryptionManager {
 
   /**
    * Generates initial Diffie-Hellman parameters to the user.
-   * Also creates the public key that will be associated with the user.
+   * Also creates the public key that will be associated with the user, taking it from the key pool.
    *
    * @param username non-null string of the user who is requesting the Diffie-Hellman key.
    * @return public Diffie-Hellman parameters.
    */
   public DHParams getPublicParameters(String username) {
-    if (privateExponents.get(username) == null) {
-      BigInteger s = BigInteger.probablePrime(RANDOM_NUMBER_BIT_LENGTH, new SecureRandom());
-      privateExponents.put(username, s);
+    DHKeyPair keyPair = keyPairs.get(username);
+    if (keyPair == null) {
+      keyPair = keyPairs.putIfAbsent(username, keyPairPool.take());
     }
-    BigInteger publicParam = modExp(params.getG(), privateExponents.get(username), params.getP());
+    BigInteger publicParam = keyPair.publicValue;
     LOGGER.info("Generating public parameter {} to {}", publicParam, username);
     return new DHParams(params, publicParam.toByteArray());
   }
 
   /**
    * Creates shared key based on the public key given in the body.
+   * The key object is built once here and reused for every decryption.
    *
    * @param username non-null string of the user who is requesting Diffie-Hellman.
    * @param parameters Diffie-Hellman parameters of the user.
@@ -88,19 +176,68 @@ public class EncryptionManager {
   public void generateSharedKey(String username, DHParams parameters) throws UserNotFoundException {
     LOGGER.info("Setting up shared key for {} with parameters {}", username, parameters);
     BigInteger publicParam = new BigInteger(parameters.getPublicParam());
-    if (privateExponents.get(username) == null) {
+    DHKeyPair keyPair = keyPairs.get(username);
+    if (keyPair == null) {
       throw new UserNotFoundException("Request initial parameters first");
     }
-    BigInteger sharedKey = modExp(publicParam, privateExponents.get(username), parameters.getParams().getP());
-    byte[] result = new byte[16];
-    for (int i = 0; i < 16; i++) {
+    BigInteger sharedKey = modExp(publicParam, keyPair.privateExponent, parameters.getParams().getP());
+    byte[] result = new byte[SHARED_KEY_LENGTH];
+    for (int i = 0; i < SHARED_KEY_LENGTH; i++) {
       result[i] = sharedKey.toByteArray()[i];
     }
     sharedKeys.put(username, result);
   }
 
+  /**
+   * Sends the server's elliptic-curve Diffie-Hellman public key to the user.
+   * The key pair is taken from a pool and kept for the user until the shared key is set up.
+   *
+   * @param username non-null string of the user who is requesting the key.
+   * @return curve and public key of the server.
+   */
+  public ECDHParams getEcdhParameters(String username) {
+    KeyPair keyPair = ecKeyPairs.get(username);
+    if (keyPair == null) {
+      keyPair = ecKeyPairs.putIfAbsent(username, ecKeyPairPool.take());
+    }
+    LOGGER.info("Sending ECDH public key to {}", username);
+    return new ECDHParams(EC_CURVE, keyPair.getPublic().getEncoded());
+  }
+
+  /**
+   * Creates the shared key from the user's elliptic-curve public key.
+   * The key is the first 16 bytes of the SHA-256 digest of the ECDH shared secret.
+   *
+   * @param username non-null string of the user who is requesting ECDH.
+   * @param parameters curve and public key of the user.
+   * @throws UserNotFoundException if user hasn't requested the server's public key first.
+   */
+  public void generateEcdhSharedKey(String username, ECDHParams parameters) throws UserNotFoundException {
+    LOGGER.info("Setting up ECDH shared key for {}", username);
+    KeyPair keyPair = ecKeyPairs.get(username);
+    if (keyPair == null) {
+      throw new UserNotFoundException("Request initial parameters first");
+    }
+    if (!EC_CURVE.equals(parameters.getCurve())) {
+      throw new ServerException(new IllegalArgumentException("Unsupported curve " + parameters.getCurve()));
+    }
+    try {
+      PublicKey publicKey = ecKeyFactories.get().generatePublic(new X509EncodedKeySpec(parameters.getPublicKey()));
+      KeyAgreement keyAgreement = ecKeyAgreements.get();
+      keyAgreement.init(keyPair.getPrivate());
+      keyAgreement.doPhase(publicKey, true);
+      byte[] digest = MessageDigest.getInstance(KEY_DERIVATION_DIGEST).digest(keyAgreement.generateSecret());
+      sharedKeys.put(username, Arrays.copyOf(digest, SHARED_KEY_LENGTH));
+    }
+    catch (GeneralSecurityException | RuntimeException e) {
+      LOGGER.error("Something went wrong during the ECDH key agreement for {}", username);
+      throw new ServerException(e);
+    }
+  }
+
   /**
    * Decrypts password based on the shared key set up with the user earlier.
+   * Each thread decrypts with its own cipher, so concurrent logins don't contend.
    *
    * @param username non-null string of the user who's password is being decrypted.
    * @param password non-null string containing the encrypted password.
@@ -108,30 +245,113 @@ public class EncryptionManager {
    * @return decrypted password
    */
   String decryptPassword(String username, byte[] password) throws UserNotFoundException {
+    LOGGER.info("Decrypting password for {}", username);
+    return decrypt(getSharedKey(username), password);
+  }
+
+  /**
+   * Decrypts the passwords of several users, spreading the work over the available cores.
+   *
+   * @param passwords non-null map of username to encrypted password.
+   * @throws UserNotFoundException when any of the users does not have a shared key set up
+   * @return map of username to decrypted password
+   */
+  Map<String, String> decryptPasswords(Map<String, byte[]> passwords) throws UserNotFoundException {
+    LOGGER.info("Decrypting passwords for {} users", passwords.size());
+    Map<String, SecretKey> keys = new HashMap<>();
+    for (String username : passwords.keySet()) {
+      keys.put(username, getSharedKey(username));
+    }
+    return passwords.entrySet().parallelStream()
+            .collect(Collectors.toMap(Map.Entry::getKey, entry -> decrypt(keys.get(entry.getKey()), entry.getValue())));
+  }
+
+  private SecretKey getSharedKey(String username) throws UserNotFoundException {
+    SecretKey key = sharedKeys.get(username);
+    if (key == null) {
+      throw new UserNotFoundException(String.format("User %s does not have a shared key", username));
+    }
+    return key;
+  }
+
+  private String decrypt(SecretKey key, byte[] password) {
     try {
-      LOGGER.info("Decrypting password for {}", username);
-      if (!sharedKeys.containsKey(username)) {
-        throw new UserNotFoundException(String.format("User %s does not have a shared key", username));
-      }
-      SecretKeySpec key = new SecretKeySpec(sharedKeys.get(username), ENCRYPTION_ALGORITHM);
+      Cipher cipher = ciphers.get();
       cipher.init(Cipher.DECRYPT_MODE, key, parameterSpec);
-      return new String(cipher.doFinal(password), "UTF-8");
-    } catch (RuntimeException | GeneralSecurityException | UnsupportedEncodingException e) {
+      return new String(cipher.doFinal(password), StandardCharsets.UTF_8);
+    } catch (RuntimeException | GeneralSecurityException e) {
       LOGGER.error("Something went wrong during decryption of a password");
       throw new ServerException(e);
     }
   }
 
   BigInteger modExp(BigInteger x, BigInteger y, BigInteger n) {
-    if (y.equals(BigInteger.valueOf(0))) {
-      return BigInteger.valueOf(1);
-    }
-    BigInteger z = modExp(x, y.divide(BigInteger.valueOf(2)), n);
-    if (y.mod(BigInteger.valueOf(2)).equals(BigInteger.valueOf(0))) {
-      return z.multiply(z).mod(n);
+    return x.modPow(y, n);
+  }
+
+  private static <T> ThreadLocal<T> perThread(SecurityFactory<T> factory) {
+    return ThreadLocal.withInitial(() -> {
+      try {
+        return factory.create();
+      }
+      catch (GeneralSecurityException e) {
+        LOGGER.error("Something went wrong when creating a security object");
+        throw new ServerException(e);
+      }
+    });
+  }
+
+  /**
+   * Picks the Diffie-Hellman group for this run without generating a prime on the calling thread.
+   * Groups come from the file named by {@value #GROUPS_FILE_PROPERTY} when it exists, otherwise from the
+   * groups bundled with the server. A configured file that doesn't exist yet is generated in the background
+   * and used from the next start.
+   *
+   * @param random source used to pick among the available groups.
+   * @return group to use.
+   */
+  private static DHParameterSpec loadGroup(SecureRandom random) {
+    List<DHParameterSpec> groups = null;
+    String file = System.getProperty(GROUPS_FILE_PROPERTY);
+    if (file != null) {
+      Path path = Paths.get(file);
+      if (Files.exists(path)) {
+        try {
+          groups = DHGroups.read(path);
+          LOGGER.info("Loaded {} Diffie-Hellman groups from {}", groups.size(), path);
+        }
+        catch (IOException | RuntimeException e) {
+          LOGGER.error("Could not read Diffie-Hellman groups from {} {}", path, e);
+          throw new ServerException(e);
+        }
+      }
+      else {
+        generateGroupInBackground(path, random);
+      }
     }
-    else {
-      return x.multiply((z.multiply(z)).mod(n)).mod(n);
+    if (groups == null || groups.isEmpty()) {
+      groups = DHGroups.readBundled();
     }
+    return groups.get(random.nextInt(groups.size()));
+  }
+
+  private static void generateGroupInBackground(Path path, SecureRandom random) {
+    Thread generator = new Thread(() -> {
+      LOGGER.info("Generating a Diffie-Hellman group into {}", path);
+      try {
+        DHGroups.write(path, Collections.singletonList(DHGroups.generate(RANDOM_NUMBER_BIT_LENGTH, random)));
+        LOGGER.info("Generated a Diffie-Hellman group into {}, it will be used from the next start", path);
+      }
+      catch (IOException e) {
+        LOGGER.error("Could not write Diffie-Hellman group to {} {}", path, e);
+      }
+    }, "dh-group-generator");
+    generator.setDaemon(true);
+    generator.setPriority(Thread.MIN_PRIORITY);
+    generator.start();
+  }
+
+  private interface SecurityFactory<T> {
+    T create() throws GeneralSecurityException;
   }
 }
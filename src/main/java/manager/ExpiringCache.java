@@ -0,0 +1,217 @@
+package manager;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Concurrent map from username to value with a size bound and a time to live.
+ * An entry expires once it has gone the time to live without being stored or refreshed. Entries are kept in a
+ * linked map in the order they were queued, so the head is always the first to come due; both expired entries
+ * and, when the cache is full, the oldest entries are removed from the head. Storing a key again moves it to the
+ * tail, so the order holds one entry per key however often a key is rewritten. Refreshing only records the time
+ * and doesn't lock: a refreshed entry that reaches the head is moved back to the tail instead of being removed,
+ * and one that expires before it is back at the head is removed when it is next read or stored.
+ * Reads don't lock; writes are serialized.
+ *
+ * @param <V> type of the cached values.
+ */
+class ExpiringCache<V> {
+
+  private final int maxSize;
+  private final long ttlMillis;
+  private final Clock clock;
+  private final Consumer<V> onRemoval;
+  private final LongAdder evictions;
+  private final LongAdder expirations;
+  private final Map<String, Entry<V>> entries;
+  private final LinkedHashMap<String, Entry<V>> order;
+
+  /**
+   * Creates an empty cache.
+   *
+   * @param maxSize maximum number of entries; the oldest entry is evicted to make room for a new one.
+   * @param ttlMillis time after which an entry that isn't refreshed is no longer returned.
+   * @param clock clock the expiry is based on.
+   * @param onRemoval called with each value once it is evicted, expired or replaced.
+   * @param evictions counter incremented for every entry evicted to respect maxSize.
+   * @param expirations counter incremented for every entry removed because it expired.
+   */
+  ExpiringCache(int maxSize, long ttlMillis, Clock clock, Consumer<V> onRemoval, LongAdder evictions,
+                LongAdder expirations) {
+    this.maxSize = maxSize;
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+    this.onRemoval = onRemoval;
+    this.evictions = evictions;
+    this.expirations = expirations;
+    entries = new ConcurrentHashMap<>();
+    order = new LinkedHashMap<>();
+  }
+
+  /**
+   * Gets the value stored for the key.
+   *
+   * @param key non-null key.
+   * @return value, or null if there is none or it has expired.
+   */
+  V get(String key) {
+    return get(key, false);
+  }
+
+  /**
+   * Gets the value stored for the key and restarts its time to live.
+   *
+   * @param key non-null key.
+   * @return value, or null if there is none or it has expired.
+   */
+  V getAndRefresh(String key) {
+    return get(key, true);
+  }
+
+  private V get(String key, boolean refresh) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    long now = clock.millis();
+    if (entry.accessedAt + ttlMillis <= now) {
+      synchronized (this) {
+        expire(now);
+        expire(entry);
+      }
+      return null;
+    }
+    if (refresh) {
+      entry.accessedAt = now;
+    }
+    return entry.value;
+  }
+
+  /**
+   * Stores the value unless the key already has a live value.
+   *
+   * @param key non-null key.
+   * @param value non-null value to store.
+   * @return the live value for the key, which is value if it was stored.
+   */
+  synchronized V putIfAbsent(String key, V value) {
+    long now = clock.millis();
+    expire(now);
+    Entry<V> existing = order.get(key);
+    if (existing != null) {
+      if (existing.accessedAt + ttlMillis > now) {
+        return existing.value;
+      }
+      expire(existing);
+    }
+    insert(key, value, now);
+    return value;
+  }
+
+  /**
+   * Stores the value, replacing any value the key had.
+   *
+   * @param key non-null key.
+   * @param value non-null value to store.
+   */
+  synchronized void put(String key, V value) {
+    long now = clock.millis();
+    expire(now);
+    Entry<V> existing = order.remove(key);
+    if (existing != null) {
+      remove(existing);
+    }
+    insert(key, value, now);
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  private void insert(String key, V value, long now) {
+    Iterator<Entry<V>> oldest = order.values().iterator();
+    while (order.size() >= maxSize && oldest.hasNext()) {
+      Entry<V> entry = oldest.next();
+      oldest.remove();
+      remove(entry);
+      evictions.increment();
+    }
+    Entry<V> entry = new Entry<>(key, value, now);
+    entries.put(key, entry);
+    order.put(key, entry);
+  }
+
+  /**
+   * Removes the entries that came due from the head of the order, moving those refreshed since they were queued
+   * back to the tail.
+   */
+  private void expire(long now) {
+    List<Entry<V>> refreshed = null;
+    Iterator<Entry<V>> oldest = order.values().iterator();
+    while (oldest.hasNext()) {
+      Entry<V> entry = oldest.next();
+      if (entry.queuedAt + ttlMillis > now) {
+        break;
+      }
+      oldest.remove();
+      if (entry.accessedAt + ttlMillis > now) {
+        if (refreshed == null) {
+          refreshed = new ArrayList<>();
+        }
+        refreshed.add(entry);
+      }
+      else {
+        remove(entry);
+        expirations.increment();
+      }
+    }
+    if (refreshed != null) {
+      for (Entry<V> entry : refreshed) {
+        entry.queuedAt = now;
+        order.put(entry.key, entry);
+      }
+    }
+  }
+
+  /**
+   * Removes an expired entry wherever it is in the order. A refreshed entry can expire before it is back at the
+   * head.
+   */
+  private void expire(Entry<V> entry) {
+    if (order.remove(entry.key, entry)) {
+      remove(entry);
+      expirations.increment();
+    }
+  }
+
+  /**
+   * Removes an entry already taken out of the order from the map.
+   */
+  private void remove(Entry<V> entry) {
+    entries.remove(entry.key, entry);
+    onRemoval.accept(entry.value);
+  }
+
+  private static final class Entry<V> {
+
+    final String key;
+    final V value;
+    /** Time the entry was put at the tail of the order, guarded by the cache. */
+    long queuedAt;
+    volatile long accessedAt;
+
+    Entry(String key, V value, long now) {
+      this.key = key;
+      this.value = value;
+      queuedAt = now;
+      accessedAt = now;
+    }
+  }
+}
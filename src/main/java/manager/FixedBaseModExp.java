@@ -0,0 +1,99 @@
+package manager;
+
+import java.math.BigInteger;
+
+/**
+ * Computes base^e mod m for a base and modulus that never change, using a table of precomputed powers.
+ * The exponent is split into windows of {@code windowBits} bits and the table holds
+ * base^(d * 2^(windowBits * i)) for every window i and digit d, so an exponentiation is one table lookup
+ * and one modular multiplication per window, with no squarings. Products are reduced with Barrett
+ * reduction against a precomputed reciprocal of the modulus, which avoids a long division per window.
+ * The table is only built by {@link #precompute}, which callers run off the startup path; until then,
+ * and for exponents that are negative or wider than the table, pow falls back to {@link BigInteger#modPow}.
+ */
+class FixedBaseModExp {
+
+  private final BigInteger base;
+  private final BigInteger modulus;
+  private final int windowBits;
+  private final int windowMask;
+  private final int windows;
+  private final int modulusBits;
+  private final BigInteger reciprocal;
+  private volatile BigInteger[][] table;
+
+  /**
+   * Sets up the exponentiation. The table of powers is built by {@link #precompute}.
+   *
+   * @param base non-null base of every exponentiation.
+   * @param modulus positive modulus.
+   * @param maxExponentBits widest exponent served from the table.
+   * @param windowBits bits per window; the table holds ceil(maxExponentBits / windowBits) * 2^windowBits entries.
+   */
+  FixedBaseModExp(BigInteger base, BigInteger modulus, int maxExponentBits, int windowBits) {
+    this.base = base;
+    this.modulus = modulus;
+    this.windowBits = windowBits;
+    windowMask = (1 << windowBits) - 1;
+    modulusBits = modulus.bitLength();
+    reciprocal = BigInteger.ONE.shiftLeft(2 * modulusBits).divide(modulus);
+    windows = (maxExponentBits + windowBits - 1) / windowBits;
+  }
+
+  /**
+   * Builds the table of powers. Exponentiations started after this returns use the table.
+   */
+  void precompute() {
+    BigInteger[][] table = new BigInteger[windows][1 << windowBits];
+    BigInteger windowBase = base.mod(modulus);
+    for (int i = 0; i < windows; i++) {
+      BigInteger[] row = table[i];
+      row[0] = BigInteger.ONE;
+      for (int digit = 1; digit < row.length; digit++) {
+        row[digit] = row[digit - 1].multiply(windowBase).mod(modulus);
+      }
+      windowBase = row[row.length - 1].multiply(windowBase).mod(modulus);
+    }
+    this.table = table;
+  }
+
+  /**
+   * Raises the base to the given exponent.
+   *
+   * @param exponent non-null exponent.
+   * @return base^exponent mod modulus.
+   */
+  BigInteger pow(BigInteger exponent) {
+    BigInteger[][] table = this.table;
+    if (table == null || exponent.signum() < 0 || exponent.bitLength() > windows * windowBits) {
+      return base.modPow(exponent, modulus);
+    }
+    BigInteger result = BigInteger.ONE;
+    int used = (exponent.bitLength() + windowBits - 1) / windowBits;
+    for (int i = 0; i < used; i++) {
+      int digit = 0;
+      for (int bit = windowBits - 1; bit >= 0; bit--) {
+        digit = digit << 1 | (exponent.testBit(i * windowBits + bit) ? 1 : 0);
+      }
+      if (digit != 0) {
+        result = reduce(result.multiply(table[i][digit & windowMask]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reduces a product of two residues modulo the modulus.
+   *
+   * @param x non-negative value below modulus^2.
+   * @return x mod modulus.
+   */
+  private BigInteger reduce(BigInteger x) {
+    BigInteger quotient = x.shiftRight(modulusBits - 1).multiply(reciprocal).shiftRight(modulusBits + 1);
+    BigInteger remainder = x.subtract(quotient.multiply(modulus));
+    while (remainder.compareTo(modulus) >= 0) {
+      remainder = remainder.subtract(modulus);
+    }
+    return remainder;
+  }
+}
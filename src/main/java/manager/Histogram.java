@@ -0,0 +1,88 @@
+package manager;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of non-negative values, for reporting percentiles without keeping every sample.
+ * Values below 8 get a bucket each; larger values share 8 buckets per power of two, so a reported percentile
+ * is at most 12.5% above the true value. Recording is a single atomic increment.
+ */
+public class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts;
+
+  Histogram() {
+    counts = new AtomicLongArray(BUCKETS);
+  }
+
+  /**
+   * Records a value. Negative values are recorded as 0.
+   *
+   * @param value value to record.
+   */
+  public void record(long value) {
+    counts.incrementAndGet(index(Math.max(0, value)));
+  }
+
+  /**
+   * Counts the recorded values.
+   *
+   * @return number of values recorded so far.
+   */
+  public long count() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Estimates a percentile of the recorded values.
+   *
+   * @param percentile percentile to estimate, between 0 and 100.
+   * @return upper bound of the bucket holding the percentile, or 0 if nothing was recorded.
+   */
+  public long percentile(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return upperBound(i);
+      }
+    }
+    return upperBound(BUCKETS - 1);
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return (shift + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long subBucket = index % SUB_BUCKETS;
+    return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+  }
+}
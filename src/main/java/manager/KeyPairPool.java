@@ -0,0 +1,88 @@
+package manager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of key pairs generated ahead of time by a background thread,
+ * so handing a pair to a user is a dequeue. When the pool runs dry a pair is generated on the caller's thread.
+ *
+ * @param <P> type of the key pairs.
+ */
+class KeyPairPool<P> implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(KeyPairPool.class);
+
+  private final Runnable setUp;
+  private final Supplier<P> generator;
+  private final BlockingQueue<P> pairs;
+  private final LongAdder refilled;
+  private final LongAdder misses;
+  private final Thread refiller;
+
+  /**
+   * Creates an empty pool. Call {@link #start} to begin filling it.
+   *
+   * @param name name of the background thread.
+   * @param setUp work the background thread does once before it starts filling the pool.
+   * @param generator generates a new key pair; called from the background thread and from callers of take.
+   * @param capacity maximum number of pairs kept ready.
+   * @param refilled counter incremented for every pair the background thread generates.
+   * @param misses counter incremented for every pair generated because the pool was empty.
+   */
+  KeyPairPool(String name, Runnable setUp, Supplier<P> generator, int capacity, LongAdder refilled,
+              LongAdder misses) {
+    this.setUp = setUp;
+    this.generator = generator;
+    this.refilled = refilled;
+    this.misses = misses;
+    pairs = new ArrayBlockingQueue<>(capacity);
+    refiller = new Thread(this::refill, name);
+    refiller.setDaemon(true);
+  }
+
+  void start() {
+    refiller.start();
+  }
+
+  /**
+   * Takes a key pair out of the pool, generating one if none is ready.
+   *
+   * @return unused key pair.
+   */
+  P take() {
+    P pair = pairs.poll();
+    if (pair == null) {
+      misses.increment();
+      pair = generator.get();
+    }
+    return pair;
+  }
+
+  int size() {
+    return pairs.size();
+  }
+
+  @Override
+  public void close() {
+    refiller.interrupt();
+  }
+
+  private void refill() {
+    setUp.run();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        pairs.put(generator.get());
+        refilled.increment();
+      }
+    }
+    catch (InterruptedException e) {
+      LOGGER.info("Key pair pool {} stopped", refiller.getName());
+    }
+  }
+}
@@ -0,0 +1,609 @@
+package manager;
+
+import dao.UserDao;
+import exception.user.UserNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Pairs users asking for a game against any opponent of a similar rank, shared by every request thread of the
+ * process. Waiting users are kept in FIFO buckets of bandWidth rating points, indexed by band in a skip list, so
+ * an arriving user looks up only the few bands its rating may match, nearest first. Finding a band is O(log n),
+ * but its queue is then walked. Two users of the same band always accept each other, so once pairing settles a
+ * band holds at most one waiting user, and the walk is mostly over tickets of users that stopped waiting. These
+ * are removed as they are met, so each is walked past once, O(1) amortized per lookup.
+ * A waiting user accepts opponents within bandWidth points of its rank, widened by another bandWidth for every
+ * widenIntervalMillis it has waited, up to maxWindow.
+ * <p>
+ * Matching takes no locks and never waits for another thread. A user is taken out of the waiting users by moving
+ * its ticket from WAITING to MATCHED, or to CANCELLED when it stops waiting, with compare-and-set. Pairing must take
+ * both tickets at once, so the older ticket is claimed first by setting a descriptor of the pairing as its state,
+ * and the pairing succeeds once the same descriptor is set on the newer ticket, or fails and releases the older
+ * ticket if the newer one has been taken. A thread that meets a claimed ticket completes the pairing from its
+ * descriptor instead of waiting for the claiming thread, so a descheduled thread stalls no one. Claims are always
+ * taken in ticket order, so helping never goes round in a cycle, and no two waiting users that could play each
+ * other are left waiting.
+ * <p>
+ * A user stops waiting after queueTimeoutMillis, so users that went away are never matched into a dead game, or
+ * earlier with {@link #cancel}. The timeouts of all waiting users are kept in a {@link TimingWheel}, which makes
+ * scheduling and cancelling them O(1) each without locks: request threads only queue them, and the expiry thread
+ * applies them to the wheel.
+ * <p>
+ * In {@link Mode#BATCH} users are only queued when they ask, and a background tick pairs up to batchSize of them
+ * every tickMillis: the batch is sorted by rank and neighbours are paired so that the most users are matched with
+ * the least total rank difference. The matches of a tick are handed to the listener together, so their games can
+ * be created in one bulk operation. Users left unmatched keep their place at the front of the queue.
+ */
+public class MatchmakingManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MatchmakingManager.class);
+
+  static final String BAND_WIDTH_PROPERTY = "chess.matchmaking.bandWidth";
+  static final String WIDEN_INTERVAL_PROPERTY = "chess.matchmaking.widenIntervalMillis";
+  static final String MAX_WINDOW_PROPERTY = "chess.matchmaking.maxWindow";
+  static final String MODE_PROPERTY = "chess.matchmaking.mode";
+  static final String TICK_PROPERTY = "chess.matchmaking.tickMillis";
+  static final String BATCH_SIZE_PROPERTY = "chess.matchmaking.batchSize";
+  static final String QUEUE_TIMEOUT_PROPERTY = "chess.matchmaking.queueTimeoutMillis";
+
+  private static final int DEFAULT_BAND_WIDTH = 100;
+  private static final long DEFAULT_WIDEN_INTERVAL_MILLIS = 5000;
+  private static final int DEFAULT_MAX_WINDOW = 500;
+  private static final long DEFAULT_TICK_MILLIS = 1000;
+  private static final int DEFAULT_BATCH_SIZE = 10000;
+  private static final long DEFAULT_QUEUE_TIMEOUT_MILLIS = 60 * 1000;
+  private static final long TIMEOUT_TICK_MILLIS = 100;
+  private static final int TIMEOUT_SLOTS = 1024;
+
+  private static final int UNDECIDED = 0;
+  private static final int PAIRED = 1;
+  private static final int FAILED = 2;
+
+  private final UserDao userDao;
+  private final Clock clock;
+  private final int bandWidth;
+  private final long widenIntervalMillis;
+  private final int maxWindow;
+  private final int maxBandDistance;
+  private final Mode mode;
+  private final int batchSize;
+  private final long queueTimeoutMillis;
+  private final TimingWheel<Ticket> timeouts;
+  private final ConcurrentSkipListMap<Integer, Queue<Ticket>> bands;
+  private final ConcurrentLinkedDeque<Ticket> pending;
+  private final ConcurrentMap<String, Ticket> waiting;
+  private final AtomicLong tickets;
+  private final LongAdder requests;
+  private final LongAdder matches;
+  private final LongAdder duplicates;
+  private final LongAdder ticks;
+  private final LongAdder cancelled;
+  private final LongAdder expired;
+  private final Histogram timeToMatch;
+  private final Histogram rankDifference;
+  private volatile Consumer<List<String>> listener;
+  private ScheduledExecutorService scheduler;
+
+  private static MatchmakingManager instance;
+
+  /**
+   * How users are paired.
+   */
+  public enum Mode {
+    /** Each user is paired while asking, with the closest waiting user. */
+    INLINE,
+    /** Users are queued and paired by a periodic tick. */
+    BATCH
+  }
+
+  MatchmakingManager() {
+    this(MetricsManager.getInstance(), UserDao.getInstance(), Clock.systemUTC(),
+            Integer.getInteger(BAND_WIDTH_PROPERTY, DEFAULT_BAND_WIDTH),
+            Long.getLong(WIDEN_INTERVAL_PROPERTY, DEFAULT_WIDEN_INTERVAL_MILLIS),
+            Integer.getInteger(MAX_WINDOW_PROPERTY, DEFAULT_MAX_WINDOW),
+            Mode.valueOf(System.getProperty(MODE_PROPERTY, Mode.INLINE.name())),
+            Integer.getInteger(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE),
+            Long.getLong(QUEUE_TIMEOUT_PROPERTY, DEFAULT_QUEUE_TIMEOUT_MILLIS));
+    start(Long.getLong(TICK_PROPERTY, DEFAULT_TICK_MILLIS));
+  }
+
+  MatchmakingManager(MetricsManager metricsManager, UserDao userDao) {
+    this(metricsManager, userDao, Clock.systemUTC(), DEFAULT_BAND_WIDTH, DEFAULT_WIDEN_INTERVAL_MILLIS,
+            DEFAULT_MAX_WINDOW, Mode.INLINE, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Constructor for unit testing.
+   *
+   * @param metricsManager MetricsManager the matchmaking reports to.
+   * @param userDao UserDao the rank of a user is read from.
+   * @param clock clock the waiting time of a user is measured with.
+   * @param bandWidth rating points per bucket, and the window of a user that has just started waiting.
+   * @param widenIntervalMillis waiting time after which the window of a user grows by bandWidth.
+   * @param maxWindow largest rank difference a user ever accepts.
+   * @param mode whether users are paired while asking or by {@link #tick}.
+   * @param batchSize largest number of users a tick pairs.
+   * @param queueTimeoutMillis time after which a user stops waiting, checked by {@link #expire}.
+   */
+  MatchmakingManager(MetricsManager metricsManager, UserDao userDao, Clock clock, int bandWidth,
+                     long widenIntervalMillis, int maxWindow, Mode mode, int batchSize, long queueTimeoutMillis) {
+    this.userDao = userDao;
+    this.clock = clock;
+    this.bandWidth = bandWidth;
+    this.widenIntervalMillis = widenIntervalMillis;
+    this.maxWindow = Math.max(bandWidth, maxWindow);
+    maxBandDistance = this.maxWindow / bandWidth + 1;
+    this.mode = mode;
+    this.batchSize = batchSize;
+    this.queueTimeoutMillis = queueTimeoutMillis;
+    timeouts = new TimingWheel<>(TIMEOUT_TICK_MILLIS, TIMEOUT_SLOTS, clock.millis());
+    bands = new ConcurrentSkipListMap<>();
+    pending = new ConcurrentLinkedDeque<>();
+    waiting = new ConcurrentHashMap<>();
+    tickets = new AtomicLong();
+    requests = metricsManager.counter("matchmaking.requests");
+    matches = metricsManager.counter("matchmaking.matches");
+    duplicates = metricsManager.counter("matchmaking.duplicates");
+    ticks = metricsManager.counter("matchmaking.ticks");
+    cancelled = metricsManager.counter("matchmaking.cancelled");
+    expired = metricsManager.counter("matchmaking.expired");
+    timeToMatch = metricsManager.histogram("matchmaking.timeToMatchMillis");
+    rankDifference = metricsManager.histogram("matchmaking.rankDifference");
+    metricsManager.registerGauge("matchmaking.waiting", waiting::size);
+    metricsManager.registerGauge("matchmaking.pendingTimeouts", timeouts::size);
+  }
+
+  /**
+   * Gets the process-wide instance. Synchronized, unlike other managers, because two instances would split the
+   * waiting users between them.
+   *
+   * @return the shared MatchmakingManager.
+   */
+  public static synchronized MatchmakingManager getInstance() {
+    if (instance == null) {
+      instance = new MatchmakingManager();
+    }
+    return instance;
+  }
+
+  /**
+   * Sets the listener of the matches made by ticks.
+   * Usernames 2i and 2i + 1 of a list it receives are the players of match i.
+   *
+   * @param listener non-null listener called by the tick thread with the matches of each tick.
+   */
+  public void setListener(Consumer<List<String>> listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Pairs the user with the closest waiting user whose window covers its rank, or makes the user wait if none does.
+   * In batch mode the user always waits for the next tick.
+   * A user who is already waiting keeps waiting and is not queued twice; its timeout is not restarted.
+   *
+   * @param username non-null string of the user looking for an opponent.
+   * @return username of the opponent to create a game with, or null if the user now waits for one.
+   * @throws UserNotFoundException when the user does not exist.
+   */
+  public String match(String username) throws UserNotFoundException {
+    requests.increment();
+    int rank = userDao.getUser(username).getRank();
+    long now = clock.millis();
+    Ticket ticket = new Ticket(tickets.getAndIncrement(), username, rank, Math.floorDiv(rank, bandWidth), now);
+    if (waiting.putIfAbsent(username, ticket) != null) {
+      LOGGER.info("{} is already waiting for an opponent", username);
+      duplicates.increment();
+      return null;
+    }
+    if (mode == Mode.BATCH) {
+      if (scheduleTimeout(ticket, now)) {
+        pending.add(ticket);
+        LOGGER.info("{} is queued for the next tick with rank {}", username, rank);
+      }
+      return null;
+    }
+    Ticket opponent = pair(ticket, now);
+    if (opponent != null) {
+      return matched(ticket, opponent, now);
+    }
+    if (!scheduleTimeout(ticket, now)) {
+      return null;
+    }
+    bands.computeIfAbsent(ticket.band, band -> new ConcurrentLinkedQueue<>()).add(ticket);
+    LOGGER.info("{} is waiting for an opponent with rank {}", username, rank);
+    // A user of a nearby rank may have started waiting since the search above without seeing this ticket.
+    opponent = pair(ticket, now);
+    return opponent == null ? null : matched(ticket, opponent, now);
+  }
+
+  /**
+   * Stops a user from waiting for an opponent.
+   *
+   * @param username non-null string of the user that no longer wants a game.
+   * @return true if the user was waiting, false if it wasn't or has just been matched.
+   */
+  public boolean cancel(String username) {
+    Ticket ticket = waiting.get(username);
+    if (ticket == null || !take(ticket, State.CANCELLED)) {
+      return false;
+    }
+    removed(ticket);
+    cancelled.increment();
+    LOGGER.info("{} stopped waiting for an opponent", username);
+    return true;
+  }
+
+  /**
+   * Stops the users whose queue timeout has passed from waiting.
+   */
+  void expire() {
+    for (Ticket ticket : timeouts.advance(clock.millis())) {
+      if (take(ticket, State.CANCELLED)) {
+        waiting.remove(ticket.username, ticket);
+        expired.increment();
+        LOGGER.info("{} waited too long for an opponent", ticket.username);
+      }
+    }
+  }
+
+  /**
+   * Takes the ticket of the user and of the closest user it may play, in ticket order.
+   *
+   * @param ticket ticket of the user looking for an opponent.
+   * @param now current time.
+   * @return ticket of the opponent, or null if there is none or the user has stopped waiting.
+   */
+  private Ticket pair(Ticket ticket, long now) {
+    for (Ticket opponent = findOpponent(ticket, now); opponent != null; opponent = findOpponent(ticket, now)) {
+      Ticket first = opponent.id < ticket.id ? opponent : ticket;
+      Ticket second = first == ticket ? opponent : ticket;
+      if (take(first, second)) {
+        return opponent;
+      }
+      if (!isWaiting(ticket)) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Schedules the queue timeout of a ticket that isn't queued yet, so only {@link #cancel} can take it meanwhile.
+   * A cancel that lands before the timeout is set can't cancel it, so the ticket is checked again once it is set.
+   *
+   * @param ticket ticket of the user about to be queued.
+   * @param now current time.
+   * @return true if the user is still waiting, false if it was cancelled and must not be queued.
+   */
+  private boolean scheduleTimeout(Ticket ticket, long now) {
+    ticket.timeout = timeouts.schedule(ticket, now + queueTimeoutMillis);
+    if (ticket.state.get() != State.WAITING) {
+      timeouts.cancel(ticket.timeout);
+      return false;
+    }
+    return true;
+  }
+
+  private void removed(Ticket ticket) {
+    waiting.remove(ticket.username, ticket);
+    TimingWheel.Timeout<Ticket> timeout = ticket.timeout;
+    if (timeout != null) {
+      timeouts.cancel(timeout);
+    }
+  }
+
+  private String matched(Ticket ticket, Ticket opponent, long now) {
+    removed(ticket);
+    removed(opponent);
+    timeToMatch.record(now - ticket.since);
+    timeToMatch.record(now - opponent.since);
+    rankDifference.record(Math.abs((long) ticket.rank - opponent.rank));
+    matches.increment();
+    LOGGER.info("Matched {} with {}", ticket.username, opponent.username);
+    return opponent.username;
+  }
+
+  /**
+   * Takes a ticket for good, first completing any pairing that has claimed it.
+   *
+   * @param ticket ticket to take.
+   * @param state MATCHED or CANCELLED.
+   * @return true if the ticket was taken, false if it has been matched or cancelled.
+   */
+  private static boolean take(Ticket ticket, State state) {
+    for (;;) {
+      Object current = ticket.state.get();
+      if (current == State.WAITING) {
+        if (ticket.state.compareAndSet(State.WAITING, state)) {
+          return true;
+        }
+      }
+      else if (current instanceof Pairing) {
+        help((Pairing) current);
+      }
+      else {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Takes two tickets at once, matching them to each other.
+   *
+   * @param first older ticket, claimed first.
+   * @param second newer ticket.
+   * @return true if both tickets were taken, false if either has been matched or cancelled.
+   */
+  private static boolean take(Ticket first, Ticket second) {
+    Pairing pairing = new Pairing(first, second);
+    for (;;) {
+      Object current = first.state.get();
+      if (current == State.WAITING) {
+        if (first.state.compareAndSet(State.WAITING, pairing)) {
+          break;
+        }
+      }
+      else if (current instanceof Pairing) {
+        help((Pairing) current);
+      }
+      else {
+        return false;
+      }
+    }
+    help(pairing);
+    return pairing.outcome.get() == PAIRED;
+  }
+
+  /**
+   * Completes a pairing whose older ticket has been claimed, by whichever thread meets it first. The pairing
+   * succeeds once its descriptor is set on the newer ticket and fails if the newer ticket is taken otherwise; a
+   * pairing that holds the newer ticket as its own older ticket is completed first. Then both tickets are matched,
+   * or the older one is released.
+   */
+  private static void help(Pairing pairing) {
+    while (pairing.outcome.get() == UNDECIDED) {
+      Object current = pairing.second.state.get();
+      if (current == pairing) {
+        pairing.outcome.compareAndSet(UNDECIDED, PAIRED);
+      }
+      else if (current == State.WAITING) {
+        pairing.second.state.compareAndSet(State.WAITING, pairing);
+      }
+      else if (current instanceof Pairing) {
+        help((Pairing) current);
+      }
+      else {
+        pairing.outcome.compareAndSet(UNDECIDED, FAILED);
+      }
+    }
+    if (pairing.outcome.get() == PAIRED) {
+      pairing.second.state.compareAndSet(pairing, State.MATCHED);
+      pairing.first.state.compareAndSet(pairing, State.MATCHED);
+    }
+    else {
+      pairing.first.state.compareAndSet(pairing, State.WAITING);
+    }
+  }
+
+  /**
+   * Checks whether a user is still waiting, first completing any pairing that has claimed its ticket.
+   *
+   * @return true if the ticket is neither matched nor cancelled.
+   */
+  private static boolean isWaiting(Ticket ticket) {
+    for (;;) {
+      Object current = ticket.state.get();
+      if (!(current instanceof Pairing)) {
+        return current == State.WAITING;
+      }
+      help((Pairing) current);
+    }
+  }
+
+  private Ticket findOpponent(Ticket ticket, long now) {
+    for (int distance = 0; distance <= maxBandDistance; distance++) {
+      Ticket opponent = findOpponent(ticket, ticket.band - distance, now);
+      if (opponent == null && distance > 0) {
+        opponent = findOpponent(ticket, ticket.band + distance, now);
+      }
+      if (opponent != null) {
+        return opponent;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Walks the queue of a band oldest first, removing the tickets of users that stopped waiting on the way.
+   *
+   * @return oldest ticket of the band that may play the user, or null if there is none.
+   */
+  private Ticket findOpponent(Ticket ticket, int band, long now) {
+    Queue<Ticket> queue = bands.get(band);
+    if (queue == null) {
+      return null;
+    }
+    for (Iterator<Ticket> iterator = queue.iterator(); iterator.hasNext();) {
+      Ticket candidate = iterator.next();
+      Object state = candidate.state.get();
+      if (state == State.MATCHED || state == State.CANCELLED) {
+        iterator.remove();
+      }
+      else if (candidate != ticket && compatible(candidate, ticket, now)) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Pairs the oldest batchSize queued users. Sorted by rank, the best pairing of a batch only ever pairs neighbours,
+   * so it is found in one pass: the best pairing of the first i users either leaves user i out or pairs it with
+   * user i - 1 on top of the best pairing of the first i - 2 users.
+   */
+  void tick() {
+    ticks.increment();
+    long now = clock.millis();
+    List<Ticket> batch = new ArrayList<>();
+    while (batch.size() < batchSize) {
+      Ticket ticket = pending.poll();
+      if (ticket == null) {
+        break;
+      }
+      if (isWaiting(ticket)) {
+        batch.add(ticket);
+      }
+    }
+    batch.sort(Comparator.comparingInt(ticket -> ticket.rank));
+    int size = batch.size();
+    int[] pairs = new int[size + 1];
+    long[] differences = new long[size + 1];
+    for (int i = 2; i <= size; i++) {
+      pairs[i] = pairs[i - 1];
+      differences[i] = differences[i - 1];
+      if (compatible(batch.get(i - 2), batch.get(i - 1), now)) {
+        long difference = differences[i - 2] + batch.get(i - 1).rank - batch.get(i - 2).rank;
+        if (pairs[i - 2] + 1 > pairs[i] || (pairs[i - 2] + 1 == pairs[i] && difference < differences[i])) {
+          pairs[i] = pairs[i - 2] + 1;
+          differences[i] = difference;
+        }
+      }
+    }
+    List<String> players = new ArrayList<>(2 * pairs[size]);
+    List<Ticket> unmatched = new ArrayList<>();
+    for (int i = size; i > 0;) {
+      Ticket ticket = batch.get(i - 1);
+      if (i >= 2 && pairs[i] == pairs[i - 2] + 1 && compatible(batch.get(i - 2), ticket, now)
+              && differences[i] == differences[i - 2] + ticket.rank - batch.get(i - 2).rank) {
+        Ticket opponent = batch.get(i - 2);
+        Ticket older = ticket.id < opponent.id ? ticket : opponent;
+        Ticket newer = older == ticket ? opponent : ticket;
+        if (take(older, newer)) {
+          players.add(newer.username);
+          players.add(matched(newer, older, now));
+        }
+        else {
+          if (isWaiting(older)) {
+            unmatched.add(older);
+          }
+          if (isWaiting(newer)) {
+            unmatched.add(newer);
+          }
+        }
+        i -= 2;
+      }
+      else {
+        unmatched.add(ticket);
+        i--;
+      }
+    }
+    unmatched.sort(Comparator.comparingLong(ticket -> -ticket.id));
+    unmatched.forEach(pending::addFirst);
+    Consumer<List<String>> listener = this.listener;
+    if (players.isEmpty()) {
+      return;
+    }
+    if (listener == null) {
+      LOGGER.warn("Dropping {} matches, nothing listens to them", players.size() / 2);
+      return;
+    }
+    listener.accept(players);
+  }
+
+  /**
+   * Starts expiring waiting users, and in batch mode pairing queued users, in the background.
+   *
+   * @param tickMillis time between the end of a tick and the start of the next.
+   */
+  synchronized void start(long tickMillis) {
+    if (scheduler != null) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "matchmaking-tick");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::expire, TIMEOUT_TICK_MILLIS, TIMEOUT_TICK_MILLIS, TimeUnit.MILLISECONDS);
+    if (mode == Mode.BATCH) {
+      scheduler.scheduleWithFixedDelay(() -> {
+        try {
+          tick();
+        }
+        catch (RuntimeException e) {
+          LOGGER.error("Could not pair queued users {}", e);
+        }
+      }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private boolean compatible(Ticket ticket, Ticket other, long now) {
+    return Math.abs((long) ticket.rank - other.rank) <= Math.max(window(ticket, now), window(other, now));
+  }
+
+  private long window(Ticket ticket, long now) {
+    long widenings = Math.max(0, now - ticket.since) / widenIntervalMillis;
+    return Math.min(maxWindow, bandWidth * (1 + widenings));
+  }
+
+  private static class Ticket {
+
+    private final long id;
+    private final String username;
+    private final int rank;
+    private final int band;
+    private final long since;
+    // A State, or the Pairing that has claimed the ticket.
+    private final AtomicReference<Object> state;
+    private volatile TimingWheel.Timeout<Ticket> timeout;
+
+    Ticket(long id, String username, int rank, int band, long since) {
+      this.id = id;
+      this.username = username;
+      this.rank = rank;
+      this.band = band;
+      this.since = since;
+      state = new AtomicReference<>(State.WAITING);
+    }
+  }
+
+  private enum State {
+    WAITING, MATCHED, CANCELLED
+  }
+
+  /**
+   * Descriptor of a pairing in progress, set as the state of both tickets while they are being taken.
+   */
+  private static class Pairing {
+
+    private final Ticket first;
+    private final Ticket second;
+    private final AtomicInteger outcome;
+
+    Pairing(Ticket first, Ticket second) {
+      this.first = first;
+      this.second = second;
+      outcome = new AtomicInteger(UNDECIDED);
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package manager;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Registry of named server metrics.
+ * Counters only ever increase, so rates are derived by sampling them; gauges are read when a snapshot is taken.
+ */
+public class MetricsManager {
+
+  private final Map<String, LongAdder> counters;
+  private final Map<String, Supplier<? extends Number>> gauges;
+  private final Map<String, Histogram> histograms;
+
+  private static MetricsManager instance;
+
+  MetricsManager() {
+    counters = new ConcurrentHashMap<>();
+    gauges = new ConcurrentHashMap<>();
+    histograms = new ConcurrentHashMap<>();
+  }
+
+  public static MetricsManager getInstance() {
+    if (instance == null) {
+      instance = new MetricsManager();
+    }
+    return instance;
+  }
+
+  /**
+   * Gets the counter with the given name, creating it on first use.
+   *
+   * @param name non-null name of the counter.
+   * @return counter to increment.
+   */
+  public LongAdder counter(String name) {
+    return counters.computeIfAbsent(name, key -> new LongAdder());
+  }
+
+  /**
+   * Registers a gauge, replacing any gauge previously registered under the same name.
+   *
+   * @param name non-null name of the gauge.
+   * @param gauge non-null supplier of the current value.
+   */
+  public void registerGauge(String name, Supplier<? extends Number> gauge) {
+    gauges.put(name, gauge);
+  }
+
+  /**
+   * Gets the histogram with the given name, creating it on first use.
+   * Snapshots report its count, median, 90th and 99th percentiles as name.count, name.p50, name.p90 and name.p99.
+   *
+   * @param name non-null name of the histogram.
+   * @return histogram to record values in.
+   */
+  public Histogram histogram(String name) {
+    return histograms.computeIfAbsent(name, key -> new Histogram());
+  }
+
+  /**
+   * Reads every counter, gauge and histogram.
+   *
+   * @return current value of each metric, sorted by name.
+   */
+  public Map<String, Number> getMetrics() {
+    Map<String, Number> metrics = new TreeMap<>();
+    counters.forEach((name, counter) -> metrics.put(name, counter.sum()));
+    gauges.forEach((name, gauge) -> metrics.put(name, gauge.get()));
+    histograms.forEach((name, histogram) -> {
+      metrics.put(name + ".count", histogram.count());
+      metrics.put(name + ".p50", histogram.percentile(50));
+      metrics.put(name + ".p90", histogram.percentile(90));
+      metrics.put(name + ".p99", histogram.percentile(99));
+    });
+    return metrics;
+  }
+}
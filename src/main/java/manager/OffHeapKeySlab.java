@@ -0,0 +1,104 @@
+package manager;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed-length keys stored outside the Java heap, in direct buffers allocated a chunk of slots at a time.
+ * A stored key is addressed by a handle combining its slot and the slot's generation; freeing a slot zeroes it
+ * and bumps the generation, so a handle to a freed key reads as missing instead of as the slot's next key.
+ */
+class OffHeapKeySlab {
+
+  private final int keyLength;
+  private final int slotsPerChunk;
+  private final List<ByteBuffer> chunks;
+  private int[] generations;
+  private int[] freeSlots;
+  private int freeCount;
+
+  /**
+   * Creates an empty slab.
+   *
+   * @param keyLength length in bytes of every key.
+   * @param slotsPerChunk number of keys in each direct buffer allocated.
+   */
+  OffHeapKeySlab(int keyLength, int slotsPerChunk) {
+    this.keyLength = keyLength;
+    this.slotsPerChunk = slotsPerChunk;
+    chunks = new ArrayList<>();
+    generations = new int[0];
+    freeSlots = new int[0];
+  }
+
+  /**
+   * Copies the key into a free slot.
+   *
+   * @param key key of exactly keyLength bytes.
+   * @return handle to read or free the key with.
+   */
+  synchronized long store(byte[] key) {
+    if (freeCount == 0) {
+      grow();
+    }
+    int slot = freeSlots[--freeCount];
+    ByteBuffer chunk = chunks.get(slot / slotsPerChunk);
+    for (int i = 0; i < keyLength; i++) {
+      chunk.put((slot % slotsPerChunk) * keyLength + i, key[i]);
+    }
+    return (long) generations[slot] << 32 | slot;
+  }
+
+  /**
+   * Copies a key back onto the heap.
+   *
+   * @param handle handle returned by {@link #store}.
+   * @return the key, or null if it was freed.
+   */
+  synchronized byte[] read(long handle) {
+    int slot = (int) handle;
+    if (generations[slot] != (int) (handle >>> 32)) {
+      return null;
+    }
+    ByteBuffer chunk = chunks.get(slot / slotsPerChunk);
+    byte[] key = new byte[keyLength];
+    for (int i = 0; i < keyLength; i++) {
+      key[i] = chunk.get((slot % slotsPerChunk) * keyLength + i);
+    }
+    return key;
+  }
+
+  /**
+   * Zeroes the key and makes its slot available. Freeing a key twice has no effect.
+   *
+   * @param handle handle returned by {@link #store}.
+   */
+  synchronized void free(long handle) {
+    int slot = (int) handle;
+    if (generations[slot] != (int) (handle >>> 32)) {
+      return;
+    }
+    generations[slot]++;
+    ByteBuffer chunk = chunks.get(slot / slotsPerChunk);
+    for (int i = 0; i < keyLength; i++) {
+      chunk.put((slot % slotsPerChunk) * keyLength + i, (byte) 0);
+    }
+    freeSlots[freeCount++] = slot;
+  }
+
+  synchronized long offHeapBytes() {
+    return (long) chunks.size() * slotsPerChunk * keyLength;
+  }
+
+  private void grow() {
+    int firstSlot = chunks.size() * slotsPerChunk;
+    chunks.add(ByteBuffer.allocateDirect(slotsPerChunk * keyLength));
+    generations = Arrays.copyOf(generations, firstSlot + slotsPerChunk);
+    freeSlots = Arrays.copyOf(freeSlots, firstSlot + slotsPerChunk);
+    for (int slot = firstSlot + slotsPerChunk - 1; slot >= firstSlot; slot--) {
+      freeSlots[freeCount++] = slot;
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package manager;
+
+/**
+ * Event pushed to a user, numbered in the order the user's events were sent.
+ */
+final class PushEvent {
+
+  /**
+   * Data of the event telling a resuming client that events it missed are no longer available, so it has to
+   * fetch its state again. Its sequence is the latest one the user was sent.
+   */
+  static final Object RESET = new Object();
+
+  final long sequence;
+  final Object data;
+
+  PushEvent(long sequence, Object data) {
+    this.sequence = sequence;
+    this.data = data;
+  }
+
+  boolean isReset() {
+    return data == RESET;
+  }
+}
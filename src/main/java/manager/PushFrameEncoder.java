@@ -0,0 +1,251 @@
+package manager;
+
+import model.Game;
+import model.GameStatus;
+import model.Move;
+import model.MoveEncoding;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Binary encoding of the frames pushed to clients. All integers are big-endian unless noted;
+ * varints are unsigned LEB128 (7 bits per byte, least significant group first).
+ * <pre>
+ * frame   = length:int32  version:byte  count:varint  sequence:varint  event*count
+ * event   = delta:varint  type:byte  payload
+ * payload = GAME        gameId:varint  player1:string  player2:string  status:byte (GameStatus ordinal)
+ *         | MOVE        gameId:varint  moveId:varint  packed:varint (see {@link MoveEncoding})
+ *         | MOVE_TEXT   gameId:varint  moveId:varint  start:string  end:string  result:string
+ *         | GAME_COOKIE cookie:string
+ *         | RESET
+ * string  = byteLength:varint  utf8Bytes
+ * </pre>
+ * The length covers everything after itself. The sequence is that of the first event; each event's delta is the
+ * difference between its sequence and the previous event's (0 for the first event), so dropped events show up
+ * as a delta above 1.
+ * MOVE_TEXT is only used for moves whose locations or result {@link MoveEncoding} can't pack.
+ * Null strings are written as empty strings. Encoding writes straight into the buffer without allocating.
+ */
+final class PushFrameEncoder {
+
+  static final byte VERSION = 2;
+  static final byte GAME = 1;
+  static final byte MOVE = 2;
+  static final byte MOVE_TEXT = 3;
+  static final byte GAME_COOKIE = 4;
+  static final byte RESET = 5;
+
+  static final int LENGTH_BYTES = 4;
+
+  private static final byte NO_STATUS = (byte) 0xFF;
+
+  private PushFrameEncoder() {}
+
+  /**
+   * Computes the size of the frame holding the events, including its length prefix.
+   *
+   * @param events non-empty events in sequence order, with data of types Game, Move or String (a game cookie).
+   * @return size in bytes of the encoded frame.
+   * @throws IllegalArgumentException if an event has an unsupported type.
+   */
+  static int frameLength(List<PushEvent> events) {
+    int length = LENGTH_BYTES + 1 + varintLength(events.size()) + varintLength(events.get(0).sequence);
+    long previous = events.get(0).sequence;
+    for (int i = 0; i < events.size(); i++) {
+      PushEvent event = events.get(i);
+      length += varintLength(event.sequence - previous) + eventLength(event.data);
+      previous = event.sequence;
+    }
+    return length;
+  }
+
+  /**
+   * Writes the frame holding the events at the buffer's position.
+   *
+   * @param events non-empty events in sequence order, with data of types Game, Move or String (a game cookie).
+   * @param buffer buffer with at least {@link #frameLength} bytes remaining.
+   * @throws IllegalArgumentException if an event has an unsupported type.
+   */
+  static void encode(List<PushEvent> events, ByteBuffer buffer) {
+    int start = buffer.position();
+    buffer.position(start + LENGTH_BYTES);
+    buffer.put(VERSION);
+    putVarint(buffer, events.size());
+    long previous = events.get(0).sequence;
+    putVarint(buffer, previous);
+    for (int i = 0; i < events.size(); i++) {
+      PushEvent event = events.get(i);
+      putVarint(buffer, event.sequence - previous);
+      putEvent(buffer, event.data);
+      previous = event.sequence;
+    }
+    buffer.putInt(start, buffer.position() - start - LENGTH_BYTES);
+  }
+
+  /**
+   * Computes the size of the data of one event once encoded, including its type byte.
+   *
+   * @param data data of type Game, Move or String (a game cookie), or {@link PushEvent#RESET}.
+   * @return size in bytes of the encoded data.
+   * @throws IllegalArgumentException if the data has an unsupported type.
+   */
+  static int eventLength(Object data) {
+    return 1 + payloadLength(data);
+  }
+
+  private static int payloadLength(Object event) {
+    if (event == PushEvent.RESET) {
+      return 0;
+    }
+    if (event instanceof Game) {
+      Game game = (Game) event;
+      return varintLength(game.getGameId()) + stringLength(game.getPlayer1()) + stringLength(game.getPlayer2()) + 1;
+    }
+    if (event instanceof Move) {
+      Move move = (Move) event;
+      int header = varintLength(move.getGameId()) + varintLength(move.getId());
+      int packed = MoveEncoding.pack(move);
+      if (packed != MoveEncoding.UNPACKABLE) {
+        return header + varintLength(packed);
+      }
+      return header + stringLength(move.getStartLocation()) + stringLength(move.getEndLocation())
+              + stringLength(move.getResult());
+    }
+    if (event instanceof String) {
+      return stringLength((String) event);
+    }
+    throw unsupported(event);
+  }
+
+  private static void putEvent(ByteBuffer buffer, Object event) {
+    if (event == PushEvent.RESET) {
+      buffer.put(RESET);
+    }
+    else if (event instanceof Game) {
+      Game game = (Game) event;
+      buffer.put(GAME);
+      putVarint(buffer, game.getGameId());
+      putString(buffer, game.getPlayer1());
+      putString(buffer, game.getPlayer2());
+      GameStatus status = game.getStatus();
+      buffer.put(status == null ? NO_STATUS : (byte) status.ordinal());
+    }
+    else if (event instanceof Move) {
+      Move move = (Move) event;
+      int packed = MoveEncoding.pack(move);
+      buffer.put(packed == MoveEncoding.UNPACKABLE ? MOVE_TEXT : MOVE);
+      putVarint(buffer, move.getGameId());
+      putVarint(buffer, move.getId());
+      if (packed != MoveEncoding.UNPACKABLE) {
+        putVarint(buffer, packed);
+      }
+      else {
+        putString(buffer, move.getStartLocation());
+        putString(buffer, move.getEndLocation());
+        putString(buffer, move.getResult());
+      }
+    }
+    else if (event instanceof String) {
+      buffer.put(GAME_COOKIE);
+      putString(buffer, (String) event);
+    }
+    else {
+      throw unsupported(event);
+    }
+  }
+
+  static int varintLength(int value) {
+    return varintLength(value & 0xFFFFFFFFL);
+  }
+
+  static int varintLength(long value) {
+    int length = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      length++;
+    }
+    return length;
+  }
+
+  static void putVarint(ByteBuffer buffer, int value) {
+    putVarint(buffer, value & 0xFFFFFFFFL);
+  }
+
+  static void putVarint(ByteBuffer buffer, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private static int stringLength(String value) {
+    int bytes = utf8Length(value);
+    return varintLength(bytes) + bytes;
+  }
+
+  private static int utf8Length(String value) {
+    if (value == null) {
+      return 0;
+    }
+    int bytes = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        bytes++;
+      }
+      else if (c < 0x800) {
+        bytes += 2;
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+        bytes += 4;
+        i++;
+      }
+      else if (Character.isSurrogate(c)) {
+        bytes++;
+      }
+      else {
+        bytes += 3;
+      }
+    }
+    return bytes;
+  }
+
+  private static void putString(ByteBuffer buffer, String value) {
+    putVarint(buffer, utf8Length(value));
+    if (value == null) {
+      return;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer.put((byte) c);
+      }
+      else if (c < 0x800) {
+        buffer.put((byte) (0xC0 | c >> 6));
+        buffer.put((byte) (0x80 | c & 0x3F));
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer.put((byte) (0xF0 | codePoint >> 18));
+        buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+        buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+        buffer.put((byte) (0x80 | codePoint & 0x3F));
+      }
+      else if (Character.isSurrogate(c)) {
+        // Unpaired surrogates have no UTF-8 form; replace them the way String.getBytes does.
+        buffer.put((byte) '?');
+      }
+      else {
+        buffer.put((byte) (0xE0 | c >> 12));
+        buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+        buffer.put((byte) (0x80 | c & 0x3F));
+      }
+    }
+  }
+
+  private static IllegalArgumentException unsupported(Object event) {
+    return new IllegalArgumentException("Can't push " + (event == null ? null : event.getClass()));
+  }
+}
@@ -0,0 +1,87 @@
+package manager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring buffer of the most recent events sent to one user, so a client resuming after a dropped connection is sent
+ * only the events it missed. The buffer assigns the sequence numbers; it starts small and grows up to its capacity.
+ * Not thread-safe: callers synchronize on the buffer.
+ */
+class ReplayBuffer {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int capacity;
+  private Object[] events;
+  private long next;
+  private int size;
+
+  /**
+   * Creates an empty buffer.
+   *
+   * @param capacity maximum number of events kept.
+   * @param firstSequence sequence number of the first event.
+   */
+  ReplayBuffer(int capacity, long firstSequence) {
+    this.capacity = capacity;
+    events = new Object[Math.min(capacity, INITIAL_CAPACITY)];
+    next = firstSequence;
+  }
+
+  /**
+   * Appends an event, overwriting the oldest one if the buffer is full.
+   *
+   * @param data non-null data of the event.
+   * @return sequence number of the event.
+   */
+  long append(Object data) {
+    if (size == events.length && size < capacity) {
+      grow();
+    }
+    long sequence = next++;
+    events[index(sequence)] = data;
+    size = Math.min(size + 1, events.length);
+    return sequence;
+  }
+
+  /**
+   * Gets the events that came after the given one.
+   *
+   * @param lastSequence sequence number of the last event the client received.
+   * @return events after lastSequence in order, or null if some of them are no longer kept or lastSequence
+   * wasn't issued by this buffer.
+   */
+  List<PushEvent> since(long lastSequence) {
+    long oldest = next - size;
+    if (lastSequence < oldest - 1 || lastSequence >= next) {
+      return null;
+    }
+    List<PushEvent> missed = new ArrayList<>((int) (next - lastSequence - 1));
+    for (long sequence = lastSequence + 1; sequence < next; sequence++) {
+      missed.add(new PushEvent(sequence, events[index(sequence)]));
+    }
+    return missed;
+  }
+
+  /**
+   * Gets the sequence number of the latest event.
+   *
+   * @return sequence number of the latest event, or one less than the first sequence number if there is none.
+   */
+  long latest() {
+    return next - 1;
+  }
+
+  private int index(long sequence) {
+    return (int) (sequence % events.length);
+  }
+
+  private void grow() {
+    Object[] grown = new Object[Math.min(capacity, events.length * 2)];
+    for (long sequence = next - size; sequence < next; sequence++) {
+      grown[(int) (sequence % grown.length)] = events[index(sequence)];
+    }
+    events = grown;
+  }
+}
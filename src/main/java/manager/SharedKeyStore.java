@@ -0,0 +1,77 @@
+package manager;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.time.Clock;
+
+/**
+ * Bounded, expiring store of the AES keys shared with users.
+ * Keys are kept either as SecretKey objects on the heap or, when off-heap storage is enabled, as bytes in an
+ * {@link OffHeapKeySlab} that are turned back into a SecretKey on every read.
+ */
+class SharedKeyStore {
+
+  private static final int SLOTS_PER_CHUNK = 4096;
+
+  private final String algorithm;
+  private final ExpiringCache<SecretKey> heapKeys;
+  private final ExpiringCache<Long> offHeapHandles;
+  private final OffHeapKeySlab slab;
+
+  /**
+   * Creates an empty store.
+   *
+   * @param algorithm algorithm of the keys.
+   * @param keyLength length in bytes of every key.
+   * @param maxSize maximum number of keys kept.
+   * @param ttlMillis time a key is kept after it was set up.
+   * @param offHeap whether the key bytes are stored off the Java heap.
+   * @param clock clock the expiry is based on.
+   * @param metricsManager MetricsManager the store reports its size and evictions to.
+   */
+  SharedKeyStore(String algorithm, int keyLength, int maxSize, long ttlMillis, boolean offHeap, Clock clock,
+                 MetricsManager metricsManager) {
+    this.algorithm = algorithm;
+    if (offHeap) {
+      slab = new OffHeapKeySlab(keyLength, SLOTS_PER_CHUNK);
+      heapKeys = null;
+      offHeapHandles = new ExpiringCache<>(maxSize, ttlMillis, clock, slab::free,
+              metricsManager.counter("encryption.sharedKeys.evicted"),
+              metricsManager.counter("encryption.sharedKeys.expired"));
+      metricsManager.registerGauge("encryption.sharedKeys.size", offHeapHandles::size);
+      metricsManager.registerGauge("encryption.sharedKeys.offHeapBytes", slab::offHeapBytes);
+    }
+    else {
+      slab = null;
+      offHeapHandles = null;
+      heapKeys = new ExpiringCache<>(maxSize, ttlMillis, clock, key -> {},
+              metricsManager.counter("encryption.sharedKeys.evicted"),
+              metricsManager.counter("encryption.sharedKeys.expired"));
+      metricsManager.registerGauge("encryption.sharedKeys.size", heapKeys::size);
+    }
+  }
+
+  void put(String username, byte[] key) {
+    if (slab == null) {
+      heapKeys.put(username, new SecretKeySpec(key, algorithm));
+    }
+    else {
+      offHeapHandles.put(username, slab.store(key));
+    }
+  }
+
+  /**
+   * Gets the key shared with the user.
+   *
+   * @param username non-null name of the user.
+   * @return the key, or null if none was set up or it has expired.
+   */
+  SecretKey get(String username) {
+    if (slab == null) {
+      return heapKeys.get(username);
+    }
+    Long handle = offHeapHandles.get(username);
+    byte[] key = handle == null ? null : slab.read(handle);
+    return key == null ? null : new SecretKeySpec(key, algorithm);
+  }
+}
@@ -0,0 +1,257 @@
+package manager;
+
+import dao.UserDao;
+import exception.user.UserNotFoundException;
+import model.Game;
+import model.GameStatus;
+import model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Updates the rank and win record of players when their games finish, off the request path.
+ * Finished games are queued by the request thread and applied by a single background thread in batches: the Elo
+ * updates of a batch are computed in order on copies of the players, then each player is written to the UserDao
+ * once. Each game is applied at most once, however many times it is reported as finished. A batch is written to
+ * the UserDao all at once; if that fails, none of its games count as applied and the same batch is retried.
+ */
+public class StatsManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StatsManager.class);
+
+  static final String QUEUE_CAPACITY_PROPERTY = "chess.stats.queueCapacity";
+  static final String BATCH_SIZE_PROPERTY = "chess.stats.batchSize";
+  static final String K_FACTOR_PROPERTY = "chess.stats.kFactor";
+
+  private static final int DEFAULT_QUEUE_CAPACITY = 100000;
+  private static final int DEFAULT_BATCH_SIZE = 1000;
+  private static final int DEFAULT_K_FACTOR = 32;
+  private static final long IDLE = Long.MAX_VALUE;
+  private static final long RETRY_DELAY_MILLIS = 1000;
+
+  private final UserDao userDao;
+  private final Clock clock;
+  private final int batchSize;
+  private final int kFactor;
+  private final BlockingQueue<GameResult> queue;
+  private final List<GameResult> batch;
+  private final BitSet applied;
+  private final LongAdder games;
+  private final LongAdder duplicates;
+  private final LongAdder dropped;
+  private final LongAdder batches;
+  private volatile long appliedSince;
+
+  private static StatsManager instance;
+
+  private StatsManager() {
+    this(MetricsManager.getInstance(), UserDao.getInstance(), Clock.systemUTC(),
+            Integer.getInteger(QUEUE_CAPACITY_PROPERTY, DEFAULT_QUEUE_CAPACITY),
+            Integer.getInteger(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE),
+            Integer.getInteger(K_FACTOR_PROPERTY, DEFAULT_K_FACTOR));
+    Thread worker = new Thread(this::run, "stats-pipeline");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * Constructor for unit testing. No background thread is started; batches are applied by {@link #applyQueued}.
+   *
+   * @param metricsManager MetricsManager the pipeline reports to.
+   * @param userDao UserDao the records are read from and written to.
+   * @param clock clock the lag of the pipeline is measured with.
+   * @param queueCapacity largest number of finished games waiting to be applied.
+   * @param batchSize largest number of games applied at once.
+   * @param kFactor largest rank change a single game can cause.
+   */
+  StatsManager(MetricsManager metricsManager, UserDao userDao, Clock clock, int queueCapacity, int batchSize,
+               int kFactor) {
+    this.userDao = userDao;
+    this.clock = clock;
+    this.batchSize = batchSize;
+    this.kFactor = kFactor;
+    queue = new ArrayBlockingQueue<>(queueCapacity);
+    batch = new ArrayList<>(batchSize);
+    applied = new BitSet();
+    appliedSince = IDLE;
+    games = metricsManager.counter("stats.games");
+    duplicates = metricsManager.counter("stats.duplicates");
+    dropped = metricsManager.counter("stats.dropped");
+    batches = metricsManager.counter("stats.batches");
+    metricsManager.registerGauge("stats.queued", queue::size);
+    metricsManager.registerGauge("stats.lagMillis", this::lagMillis);
+  }
+
+  public static synchronized StatsManager getInstance() {
+    if (instance == null) {
+      instance = new StatsManager();
+    }
+    return instance;
+  }
+
+  /**
+   * Queues a finished game for its players' records to be updated. Never blocks: if the queue is full the game
+   * is dropped and counted in stats.dropped.
+   *
+   * @param game non-null game whose status is its result.
+   */
+  public void gameFinished(Game game) {
+    if (!game.getStatus().isFinished()) {
+      return;
+    }
+    GameResult result = new GameResult(game.getGameId(), game.getPlayer1(), game.getPlayer2(), game.getStatus(),
+            clock.millis());
+    if (!queue.offer(result)) {
+      LOGGER.warn("Dropping the result of game {}, the stats queue is full", game.getGameId());
+      dropped.increment();
+    }
+  }
+
+  /**
+   * Applies one batch of the queued games, or retries the last batch if it failed, for unit testing.
+   *
+   * @return number of games in the batch.
+   */
+  int applyQueued() {
+    if (batch.isEmpty()) {
+      queue.drainTo(batch, batchSize);
+    }
+    int size = batch.size();
+    apply();
+    return size;
+  }
+
+  private void run() {
+    for (;;) {
+      try {
+        if (batch.isEmpty()) {
+          batch.add(queue.take());
+          queue.drainTo(batch, batchSize - 1);
+        }
+        try {
+          apply();
+        }
+        catch (RuntimeException e) {
+          LOGGER.error("Could not apply the results of {} games, retrying {}", batch.size(), e);
+          Thread.sleep(RETRY_DELAY_MILLIS);
+        }
+      }
+      catch (InterruptedException e) {
+        LOGGER.info("Stats pipeline interrupted, stopping");
+        return;
+      }
+    }
+  }
+
+  /**
+   * Applies the current batch and clears it. If the records can't be written, the games of the batch are left
+   * unapplied and the batch is kept to be retried.
+   */
+  private void apply() {
+    if (batch.isEmpty()) {
+      return;
+    }
+    appliedSince = batch.get(0).finishedAt;
+    Map<String, User> records = new HashMap<>();
+    List<Integer> gameIds = new ArrayList<>(batch.size());
+    int batchGames = 0;
+    int batchDuplicates = 0;
+    for (GameResult result : batch) {
+      if (applied.get(result.gameId)) {
+        batchDuplicates++;
+        continue;
+      }
+      applied.set(result.gameId);
+      gameIds.add(result.gameId);
+      User player1 = record(records, result.player1);
+      User player2 = record(records, result.player2);
+      if (player1 != null && player2 != null) {
+        applyResult(player1, player2, result.status);
+        batchGames++;
+      }
+    }
+    try {
+      userDao.updateRecords(records.values());
+    }
+    catch (RuntimeException e) {
+      gameIds.forEach(applied::clear);
+      throw e;
+    }
+    games.add(batchGames);
+    duplicates.add(batchDuplicates);
+    batches.increment();
+    batch.clear();
+    appliedSince = IDLE;
+  }
+
+  private User record(Map<String, User> records, String username) {
+    User record = records.get(username);
+    if (record == null) {
+      try {
+        record = new User(userDao.getUser(username));
+      }
+      catch (UserNotFoundException e) {
+        LOGGER.warn("Not recording a game of missing user {}", username);
+        return null;
+      }
+      records.put(username, record);
+    }
+    return record;
+  }
+
+  /**
+   * Applies an Elo update: each player gains kFactor times the difference between its score and its expected
+   * score, and the change is rounded once so the two ranks move by the same amount in opposite directions.
+   */
+  private void applyResult(User player1, User player2, GameStatus status) {
+    double expected = 1 / (1 + Math.pow(10, (player2.getRank() - player1.getRank()) / 400.0));
+    double score = status == GameStatus.PLAYER1_WIN ? 1 : status == GameStatus.DRAW ? 0.5 : 0;
+    int change = (int) Math.round(kFactor * (score - expected));
+    player1.setRecord(player1.getRank() + change,
+            player1.getWins() + (status == GameStatus.PLAYER1_WIN ? 1 : 0),
+            player1.getLoses() + (status == GameStatus.PLAYER2_WIN ? 1 : 0),
+            player1.getDraws() + (status == GameStatus.DRAW ? 1 : 0));
+    player2.setRecord(player2.getRank() - change,
+            player2.getWins() + (status == GameStatus.PLAYER2_WIN ? 1 : 0),
+            player2.getLoses() + (status == GameStatus.PLAYER1_WIN ? 1 : 0),
+            player2.getDraws() + (status == GameStatus.DRAW ? 1 : 0));
+  }
+
+  /**
+   * Measures how far behind the pipeline is.
+   *
+   * @return time since the oldest game not yet applied finished, or 0 if every game has been applied.
+   */
+  private long lagMillis() {
+    GameResult oldestQueued = queue.peek();
+    long oldest = Math.min(appliedSince, oldestQueued == null ? IDLE : oldestQueued.finishedAt);
+    return oldest == IDLE ? 0 : Math.max(0, clock.millis() - oldest);
+  }
+
+  private static class GameResult {
+
+    private final int gameId;
+    private final String player1;
+    private final String player2;
+    private final GameStatus status;
+    private final long finishedAt;
+
+    GameResult(int gameId, String player1, String player2, GameStatus status, long finishedAt) {
+      this.gameId = gameId;
+      this.player1 = player1;
+      this.player2 = player2;
+      this.status = status;
+      this.finishedAt = finishedAt;
+    }
+  }
+}
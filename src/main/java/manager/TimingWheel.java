@@ -0,0 +1,181 @@
+package manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashed timing wheel: timeouts are kept in a ring of slots, each a doubly linked list of the timeouts whose
+ * deadline falls on that slot in some round. Linking into a list and unlinking from it are O(1) however many
+ * timeouts are pending; advancing visits only the slots of the ticks that went by.
+ * Deadlines are rounded up to the next tick, so a timeout never fires early and at most one tick late.
+ * <p>
+ * The wheel takes no locks. Any thread may schedule and cancel: a new timeout is put on a lock-free queue, and
+ * cancelling only moves the timeout's state from pending to cancelled with compare-and-set and queues it to be
+ * unlinked. Only the thread calling {@link #advance} touches the slots: it links the queued timeouts in and
+ * unlinks the cancelled ones before expiring. Expiring takes the same compare-and-set, so a timeout either expires
+ * or is cancelled, never both. Calls to advance must not overlap.
+ *
+ * @param <T> type of the values the timeouts carry.
+ */
+class TimingWheel<T> {
+
+  private static final int PENDING = 0;
+  private static final int CANCELLED = 1;
+  private static final int EXPIRED = 2;
+
+  private final long tickMillis;
+  private final Timeout<T>[] slots;
+  private final int mask;
+  private final Queue<Timeout<T>> scheduled;
+  private final Queue<Timeout<T>> cancelled;
+  private final LongAdder size;
+  private long currentTick;
+
+  /**
+   * Creates an empty wheel.
+   *
+   * @param tickMillis length of a tick, the resolution of the deadlines.
+   * @param slotCount number of slots, rounded up to a power of two.
+   * @param startMillis time the wheel starts ticking from.
+   */
+  TimingWheel(long tickMillis, int slotCount, long startMillis) {
+    this.tickMillis = tickMillis;
+    int slotsLength = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+    // Arrays of a generic type can't be created; this one only ever holds Timeout<T> and never escapes.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Timeout<T>[] heads = new Timeout[slotsLength];
+    slots = heads;
+    for (int i = 0; i < slotsLength; i++) {
+      slots[i] = new Timeout<>(null, 0);
+      slots[i].previous = slots[i];
+      slots[i].next = slots[i];
+    }
+    mask = slotsLength - 1;
+    scheduled = new ConcurrentLinkedQueue<>();
+    cancelled = new ConcurrentLinkedQueue<>();
+    size = new LongAdder();
+    currentTick = startMillis / tickMillis;
+  }
+
+  /**
+   * Schedules a value to expire at the given time.
+   *
+   * @param value value to hand back when the timeout expires.
+   * @param deadlineMillis time the value expires at.
+   * @return timeout that can be cancelled.
+   */
+  Timeout<T> schedule(T value, long deadlineMillis) {
+    Timeout<T> timeout = new Timeout<>(value, (deadlineMillis + tickMillis - 1) / tickMillis);
+    size.increment();
+    scheduled.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * Cancels a timeout so it never expires.
+   *
+   * @param timeout timeout returned by {@link #schedule}.
+   * @return true if the timeout was pending, false if it had already expired or been cancelled.
+   */
+  boolean cancel(Timeout<T> timeout) {
+    if (!timeout.state.compareAndSet(PENDING, CANCELLED)) {
+      return false;
+    }
+    size.decrement();
+    cancelled.add(timeout);
+    return true;
+  }
+
+  /**
+   * Moves the wheel to the given time and removes the timeouts whose deadline has passed. Only one thread may
+   * advance the wheel at a time.
+   *
+   * @param nowMillis current time.
+   * @return values of the expired timeouts.
+   */
+  List<T> advance(long nowMillis) {
+    for (Timeout<T> timeout = scheduled.poll(); timeout != null; timeout = scheduled.poll()) {
+      if (timeout.state.get() == PENDING) {
+        link(timeout);
+      }
+    }
+    for (Timeout<T> timeout = cancelled.poll(); timeout != null; timeout = cancelled.poll()) {
+      if (timeout.next != null) {
+        unlink(timeout);
+      }
+    }
+    List<T> expired = new ArrayList<>();
+    long nowTick = nowMillis / tickMillis;
+    long ticks = Math.min(nowTick - currentTick, slots.length);
+    for (long tick = currentTick + 1; tick <= currentTick + ticks; tick++) {
+      Timeout<T> head = slots[(int) tick & mask];
+      for (Timeout<T> timeout = head.next; timeout != head;) {
+        Timeout<T> next = timeout.next;
+        if (timeout.deadlineTick <= nowTick) {
+          unlink(timeout);
+          if (timeout.state.compareAndSet(PENDING, EXPIRED)) {
+            size.decrement();
+            expired.add(timeout.value);
+          }
+        }
+        timeout = next;
+      }
+    }
+    currentTick = Math.max(currentTick, nowTick);
+    return expired;
+  }
+
+  /**
+   * Counts the timeouts that have neither expired nor been cancelled. Exact only when no thread is scheduling,
+   * cancelling or advancing.
+   *
+   * @return number of pending timeouts.
+   */
+  int size() {
+    return size.intValue();
+  }
+
+  /**
+   * Links a queued timeout into the slot of its deadline, or of the next tick if its deadline has passed.
+   */
+  private void link(Timeout<T> timeout) {
+    timeout.deadlineTick = Math.max(currentTick + 1, timeout.deadlineTick);
+    Timeout<T> head = slots[(int) timeout.deadlineTick & mask];
+    timeout.previous = head.previous;
+    timeout.next = head;
+    head.previous.next = timeout;
+    head.previous = timeout;
+  }
+
+  private void unlink(Timeout<T> timeout) {
+    timeout.previous.next = timeout.next;
+    timeout.next.previous = timeout.previous;
+    timeout.previous = null;
+    timeout.next = null;
+  }
+
+  /**
+   * A pending expiry. Its state is shared by every thread; its deadline and links belong to the advancing thread,
+   * which links it into the slot of its deadline until it expires or is cancelled.
+   *
+   * @param <T> type of the value the timeout carries.
+   */
+  static final class Timeout<T> {
+
+    private final T value;
+    private final AtomicInteger state;
+    private long deadlineTick;
+    private Timeout<T> previous;
+    private Timeout<T> next;
+
+    private Timeout(T value, long deadlineTick) {
+      this.value = value;
+      this.deadlineTick = deadlineTick;
+      state = new AtomicInteger(PENDING);
+    }
+  }
+}
@@ -4,12 +4,20 @@ public class ConnectionInfo {
 
   private String host;
   private int port;
+  private Long lastSequence;
+
+  public ConnectionInfo() {}
 
   public ConnectionInfo(String host, int port) {
     this.host = host;
     this.port = port;
   }
 
+  public ConnectionInfo(String host, int port, Long lastSequence) {
+    this(host, port);
+    this.lastSequence = lastSequence;
+  }
+
   public String getHost() {
     return host;
   }
@@ -25,4 +33,18 @@ public class ConnectionInfo {
   public void setPort(int port) {
     this.port = port;
   }
+
+  /**
+   * Gets the sequence number of the last pushed event the client received, for a client resuming after its
+   * connection dropped.
+   *
+   * @return sequence number, or null for a new client.
+   */
+  public Long getLastSequence() {
+    return lastSequence;
+  }
+
+  public void setLastSequence(Long lastSequence) {
+    this.lastSequence = lastSequence;
+  }
 }
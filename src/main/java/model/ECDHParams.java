@@ -0,0 +1,37 @@
+package model;
+
+public class ECDHParams {
+
+  private String curve;
+  private byte[] publicKey;
+
+  public ECDHParams() {
+  }
+
+  /**
+   * Creates the parameters of one side of an elliptic-curve Diffie-Hellman exchange.
+   *
+   * @param curve standard name of the curve, e.g. secp256r1.
+   * @param publicKey X.509 (SubjectPublicKeyInfo) encoding of the public key.
+   */
+  public ECDHParams(String curve, byte[] publicKey) {
+    this.curve = curve;
+    this.publicKey = publicKey;
+  }
+
+  public String getCurve() {
+    return curve;
+  }
+
+  public void setCurve(String curve) {
+    this.curve = curve;
+  }
+
+  public byte[] getPublicKey() {
+    return publicKey;
+  }
+
+  public void setPublicKey(byte[] publicKey) {
+    this.publicKey = publicKey;
+  }
+}
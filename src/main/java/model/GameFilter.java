@@ -0,0 +1,5 @@
+package model;
+
+public enum GameFilter {
+  ALL, PLAYING, FINISHED
+}
@@ -11,4 +11,8 @@ public enum GameStatus {
       default: return PLAYING;
     }
   }
+
+  public boolean isFinished() {
+    return this != PLAYING;
+  }
 }
@@ -16,14 +16,30 @@ public class Move {
     this.result = result;
   }
 
+  public int getId() {
+    return id;
+  }
+
   public void setId(int id) {
     this.id = id;
   }
 
+  public int getGameId() {
+    return gameId;
+  }
+
   public void setGameId(int gameId) {
     this.gameId = gameId;
   }
 
+  public String getStartLocation() {
+    return startLocation;
+  }
+
+  public String getEndLocation() {
+    return endLocation;
+  }
+
   public String getResult() {
     return result;
   }
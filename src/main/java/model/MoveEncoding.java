@@ -0,0 +1,108 @@
+package model;
+
+/**
+ * Packs a move into a single int when its locations are plain squares and its result is a known outcome.
+ * Layout, from the least significant bit: from-square (6 bits), to-square (6 bits), promotion (3 bits)
+ * and result (2 bits). Moves that don't fit this layout are reported as {@link #UNPACKABLE}.
+ */
+public final class MoveEncoding {
+
+  public static final int UNPACKABLE = -1;
+
+  private static final int SQUARE_BITS = 6;
+  private static final int SQUARE_MASK = (1 << SQUARE_BITS) - 1;
+  private static final int TO_SHIFT = SQUARE_BITS;
+  private static final int PROMOTION_SHIFT = 2 * SQUARE_BITS;
+  private static final int PROMOTION_MASK = 0x7;
+  private static final int RESULT_SHIFT = PROMOTION_SHIFT + 3;
+  private static final int RESULT_MASK = 0x3;
+
+  private static final String PROMOTIONS = " qrbn";
+  private static final String[] RESULTS = {"", "Draw", "Player 1 Win", "Player 2 Win"};
+
+  private MoveEncoding() {}
+
+  /**
+   * Packs the move into an int.
+   *
+   * @param move non-null move to pack.
+   * @return packed move, or {@link #UNPACKABLE} if the move can't be represented exactly.
+   */
+  public static int pack(Move move) {
+    String start = move.getStartLocation();
+    String end = move.getEndLocation();
+    if (start == null || end == null || start.length() != 2 || end.length() < 2 || end.length() > 3) {
+      return UNPACKABLE;
+    }
+    int from = squareIndex(start);
+    int to = squareIndex(end);
+    int promotion = end.length() == 3 ? PROMOTIONS.indexOf(end.charAt(2)) : 0;
+    int result = resultIndex(move.getResult());
+    if (from == UNPACKABLE || to == UNPACKABLE || result == UNPACKABLE || (end.length() == 3 && promotion <= 0)) {
+      return UNPACKABLE;
+    }
+    return from | to << TO_SHIFT | promotion << PROMOTION_SHIFT | result << RESULT_SHIFT;
+  }
+
+  /**
+   * Rebuilds the move from its packed form.
+   *
+   * @param packed value returned by {@link #pack}.
+   * @return a new Move with the same locations and result.
+   */
+  public static Move unpack(int packed) {
+    String end = squareName(to(packed));
+    int promotion = promotion(packed);
+    if (promotion != 0) {
+      end += PROMOTIONS.charAt(promotion);
+    }
+    return new Move(squareName(from(packed)), end, result(packed));
+  }
+
+  public static int from(int packed) {
+    return packed & SQUARE_MASK;
+  }
+
+  public static int to(int packed) {
+    return (packed >>> TO_SHIFT) & SQUARE_MASK;
+  }
+
+  public static int promotion(int packed) {
+    return (packed >>> PROMOTION_SHIFT) & PROMOTION_MASK;
+  }
+
+  public static String result(int packed) {
+    return RESULTS[(packed >>> RESULT_SHIFT) & RESULT_MASK];
+  }
+
+  /**
+   * Converts an algebraic square such as "e4" to its index (a1 = 0, h8 = 63).
+   *
+   * @param location location string, possibly null.
+   * @return square index, or {@link #UNPACKABLE} if the string doesn't start with a square.
+   */
+  public static int squareIndex(String location) {
+    if (location == null || location.length() < 2) {
+      return UNPACKABLE;
+    }
+    int file = location.charAt(0) - 'a';
+    int rank = location.charAt(1) - '1';
+    if (file < 0 || file > 7 || rank < 0 || rank > 7) {
+      return UNPACKABLE;
+    }
+    return rank * 8 + file;
+  }
+
+  public static String squareName(int index) {
+    return new String(new char[] {(char) ('a' + index % 8), (char) ('1' + index / 8)});
+  }
+
+  private static int resultIndex(String result) {
+    for (int i = 0; i < RESULTS.length; i++) {
+      if (RESULTS[i].equals(result)) {
+        return i;
+      }
+    }
+    return UNPACKABLE;
+  }
+}
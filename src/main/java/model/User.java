@@ -1,5 +1,8 @@
 package model;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,6 +17,7 @@ public class User {
   private int wins;
   private int loses;
   private int draws;
+  private int cookieVersion;
 
   public User() {}
 
@@ -29,6 +33,24 @@ public class User {
     draws = 0;
   }
 
+  /**
+   * Copies every field of another user.
+   *
+   * @param other non-null user to copy.
+   */
+  public User(User other) {
+    username = other.username;
+    password = other.password;
+    email = other.email;
+    online = other.online;
+    friends = other.friends == null ? null : new ArrayList<>(other.friends);
+    rank = other.rank;
+    wins = other.wins;
+    loses = other.loses;
+    draws = other.draws;
+    cookieVersion = other.cookieVersion;
+  }
+
   public String getUsername() {
     return username;
   }
@@ -59,20 +81,122 @@ public class User {
     return friends;
   }
 
-  int getRank() {
+  public int getRank() {
     return rank;
   }
 
-  int getWins() {
+  public int getWins() {
     return wins;
   }
 
-  int getLoses() {
+  public int getLoses() {
     return loses;
   }
 
-  int getDraws() {
+  public int getDraws() {
     return draws;
   }
 
+  /**
+   * Replaces the rank and win record. Not a bean setter, so the record can't be set from a request body.
+   *
+   * @param rank new rank.
+   * @param wins new number of games won.
+   * @param loses new number of games lost.
+   * @param draws new number of games drawn.
+   */
+  public void setRecord(int rank, int wins, int loses, int draws) {
+    this.rank = rank;
+    this.wins = wins;
+    this.loses = loses;
+    this.draws = draws;
+  }
+
+  /**
+   * Gets the version the user's cookies are signed under. Cookies signed under an older version are rejected.
+   *
+   * @return current cookie version.
+   */
+  public int getCookieVersion() {
+    return cookieVersion;
+  }
+
+  /**
+   * Replaces the cookie version. Not a bean setter, so it can't be set from a request body.
+   *
+   * @param cookieVersion new cookie version.
+   */
+  public void resetCookieVersion(int cookieVersion) {
+    this.cookieVersion = cookieVersion;
+  }
+
+  /**
+   * Invalidates every cookie issued to the user so far.
+   */
+  public void revokeCookies() {
+    cookieVersion++;
+  }
+
+  /**
+   * Writes every field of the user in a compact binary form, readable by {@link #readFrom}.
+   *
+   * @param out output to write to.
+   * @throws IOException if the output can't be written.
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    writeString(out, username);
+    writeString(out, password);
+    writeString(out, email);
+    out.writeBoolean(online);
+    out.writeInt(friends == null ? -1 : friends.size());
+    if (friends != null) {
+      for (String friend : friends) {
+        writeString(out, friend);
+      }
+    }
+    out.writeInt(rank);
+    out.writeInt(wins);
+    out.writeInt(loses);
+    out.writeInt(draws);
+    out.writeInt(cookieVersion);
+  }
+
+  /**
+   * Reads a user written by {@link #writeTo}.
+   *
+   * @param in input to read from.
+   * @return the user that was written.
+   * @throws IOException if the input can't be read.
+   */
+  public static User readFrom(DataInput in) throws IOException {
+    User user = new User();
+    user.username = readString(in);
+    user.password = readString(in);
+    user.email = readString(in);
+    user.online = in.readBoolean();
+    int friendCount = in.readInt();
+    if (friendCount >= 0) {
+      user.friends = new ArrayList<>(friendCount);
+      for (int i = 0; i < friendCount; i++) {
+        user.friends.add(readString(in));
+      }
+    }
+    user.rank = in.readInt();
+    user.wins = in.readInt();
+    user.loses = in.readInt();
+    user.draws = in.readInt();
+    user.cookieVersion = in.readInt();
+    return user;
+  }
+
+  private static void writeString(DataOutput out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
 }
@@ -1,21 +1,32 @@
 package api;
 
+import exception.user.InvalidUserCookieException;
+import exception.user.UserException;
 import exception.user.UserNotFoundException;
 import manager.ClientConnectionManager;
+import manager.CookieManager;
 import manager.EncryptionManager;
 import model.ConnectionInfo;
 import model.DHParams;
+import model.ECDHParams;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import javax.crypto.spec.DHParameterSpec;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.math.BigInteger;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class EntryPointTest {
 
@@ -25,11 +36,19 @@ public class EntryPointTest {
   private ClientConnectionManager mockClientConnectionManager;
   @Mock
   private EncryptionManager mockEncryptionManager;
+  @Mock
+  private CookieManager mockCookieManager;
+  @Mock
+  private HttpServletRequest mockRequest;
+  @Mock
+  private HttpServletResponse mockResponse;
+  @Mock
+  private AsyncContext mockAsyncContext;
 
   @BeforeMethod
   public void setUp() {
     MockitoAnnotations.initMocks(this);
-    testModel = new EntryPoint(mockClientConnectionManager, mockEncryptionManager);
+    testModel = new EntryPoint(mockClientConnectionManager, mockEncryptionManager, mockCookieManager);
   }
 
   @Test
@@ -50,4 +69,40 @@ public class EntryPointTest {
             BigInteger.valueOf(5)), new byte[16]));
     verify(mockEncryptionManager).generateSharedKey(eq("user1"), any());
   }
+
+  @Test
+  public void shouldSendEcdhParameters() {
+    testModel.sendEcdhParameters("user1");
+    verify(mockEncryptionManager).getEcdhParameters(eq("user1"));
+  }
+
+  @Test
+  public void shouldSetUpEcdhSharedKey() throws UserNotFoundException {
+    testModel.setUpEcdhSharedKey("user1", new ECDHParams("secp256r1", new byte[91]));
+    verify(mockEncryptionManager).generateEcdhSharedKey(eq("user1"), any());
+  }
+
+  @Test
+  public void shouldStreamEvents() throws UserException, IOException {
+    when(mockCookieManager.getQualifier("cookie")).thenReturn("user1");
+    when(mockRequest.startAsync(mockRequest, mockResponse)).thenReturn(mockAsyncContext);
+
+    testModel.streamEvents("cookie", 41L, mockRequest, mockResponse);
+
+    verify(mockResponse).setContentType("text/event-stream");
+    verify(mockClientConnectionManager).setUpStream("user1", mockAsyncContext, 41L);
+  }
+
+  @Test(expectedExceptions = InvalidUserCookieException.class)
+  public void shouldNotStreamEventsWithInvalidCookie() throws UserException, IOException {
+    doThrow(new InvalidUserCookieException("Invalid User Cookie")).when(mockCookieManager)
+            .validateUserCookie("cookie");
+
+    try {
+      testModel.streamEvents("cookie", null, mockRequest, mockResponse);
+    }
+    finally {
+      verify(mockRequest, never()).startAsync(any(), any());
+    }
+  }
 }
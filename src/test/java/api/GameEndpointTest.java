@@ -7,6 +7,7 @@ import exception.user.UserNotFoundException;
 import facade.GameFacade;
 import manager.CookieManager;
 import model.Game;
+import model.GameFilter;
 import model.GameStatus;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -41,15 +42,23 @@ public class GameEndpointTest {
   public void shouldGetGamesForAUser() throws UserException {
     List<Game> expected = new ArrayList<>();
     expected.add(new Game(0, "player1", "player2", GameStatus.DRAW));
-    when(gameFacade.getUserGames(any(), any())).thenReturn(expected);
-    List<Game> result = testModel.getUserGames("player1", "cookie");
+    when(gameFacade.getUserGames(any(), any(), anyInt(), anyInt(), any())).thenReturn(expected);
+    List<Game> result = testModel.getUserGames("player1", GameFilter.ALL, -1, 100, "cookie");
     assertEquals(result, expected);
   }
 
+  @Test
+  public void shouldCapPageSize() throws UserException {
+    testModel.getUserGames("player1", GameFilter.FINISHED, 7, 1000000, "cookie");
+    verify(gameFacade).getUserGames(eq("player1"), eq(GameFilter.FINISHED), eq(7),
+            eq(GameEndpoint.MAX_PAGE_SIZE), eq("cookie"));
+  }
+
   @Test (expectedExceptions = UserNotFoundException.class, expectedExceptionsMessageRegExp = ".*User not found.*")
   public void shouldNotWrapUserExceptions() throws UserException {
-    when(gameFacade.getUserGames(eq("player2"), any())).thenThrow(new UserNotFoundException("User not found"));
-    testModel.getUserGames("player2", "anotherCookie");
+    when(gameFacade.getUserGames(eq("player2"), any(), anyInt(), anyInt(), any()))
+            .thenThrow(new UserNotFoundException("User not found"));
+    testModel.getUserGames("player2", GameFilter.ALL, -1, 100, "anotherCookie");
   }
 
   @Test (expectedExceptions = GameException.class,
@@ -66,6 +75,13 @@ public class GameEndpointTest {
     testModel.createRandomGame("player3:cookie");
   }
 
+  @Test
+  public void shouldCancelRandomGame() throws UserException {
+    when(gameFacade.cancelRandomGame("player1", "player1:cookie")).thenReturn(true);
+
+    assertEquals(testModel.cancelRandomGame("player1:cookie"), true);
+  }
+
   @Test
   public void shouldCreateGame() throws UserException, GameException {
     testModel.createGame("player2", "player4:cookie");
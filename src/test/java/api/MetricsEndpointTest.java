@@ -0,0 +1,35 @@
+package api;
+
+import manager.MetricsManager;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+public class MetricsEndpointTest {
+
+  private MetricsEndpoint testModel;
+
+  @Mock
+  private MetricsManager mockMetricsManager;
+
+  @BeforeMethod
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    testModel = new MetricsEndpoint(mockMetricsManager);
+  }
+
+  @Test
+  public void shouldReturnMetrics() {
+    Map<String, Number> metrics = Collections.singletonMap("requests", 1L);
+    when(mockMetricsManager.getMetrics()).thenReturn(metrics);
+
+    assertEquals(testModel.getMetrics(), metrics);
+  }
+}
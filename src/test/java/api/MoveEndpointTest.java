@@ -37,17 +37,23 @@ public class MoveEndpointTest {
     moves.add(new Move());
     moves.add(new Move());
 
-    when(moveFacade.getMovesForGame(eq(0), anyString(), anyString())).thenReturn(moves);
+    when(moveFacade.getMovesForGame(eq(0), eq(-1), eq(Integer.MAX_VALUE), anyString(), anyString())).thenReturn(moves);
     testModel = new MoveEndpoint(moveFacade);
   }
 
   @Test
   public void shouldRetrieveMovesForGame() throws GameException, UserException {
-    List<Move> result = testModel.getMovesForGame(0, "userCookie", "gameCookie");
+    List<Move> result = testModel.getMovesForGame(0, -1, null, "userCookie", "gameCookie");
 
     assertEquals(result.size(), 3);
   }
 
+  @Test
+  public void shouldPassCursorToFacade() throws GameException, UserException {
+    testModel.getMovesForGame(0, 4, 10, "userCookie", "gameCookie");
+    verify(moveFacade).getMovesForGame(eq(0), eq(4), eq(10), eq("userCookie"), eq("gameCookie"));
+  }
+
   @Test
   public void shouldPlayMove() throws GameException, UserException {
     testModel.playMove(0, new Move(), "userCookie", "gameCookie");
@@ -3,10 +3,12 @@ package dao;
 import exception.game.GameException;
 import exception.game.GameNotFoundException;
 import model.Game;
+import model.GameFilter;
 import model.GameStatus;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static org.testng.Assert.assertEquals;
@@ -32,6 +34,39 @@ public class GameDaoTest {
     assertEquals(result, game);
   }
 
+  @Test
+  public void shouldCreateGamesInBulk() throws GameException {
+    testModel.createGame("player1", "player2");
+
+    List<Game> result = testModel.createGames(Arrays.asList("player3", "player1", "player4", "player5"));
+
+    assertEquals(result.size(), 2);
+    assertEquals(result.get(0).getGameId(), 1);
+    assertEquals(result.get(1).getPlayer2(), "player5");
+    assertEquals(testModel.getGame(2), result.get(1));
+    assertEquals(testModel.getUserGames("player1").size(), 2);
+  }
+
+  @Test
+  public void shouldNumberGamesFromFirstGameId() throws GameException {
+    testModel = new GameDao(5);
+    testModel.createGame("player1", "player2");
+    testModel.createGames(Arrays.asList("player3", "player1"));
+
+    assertEquals(testModel.getGame(6).getPlayer1(), "player3");
+    assertEquals(testModel.getUserGames("player1").get(0).getGameId(), 5);
+  }
+
+  @Test(expectedExceptions = GameException.class)
+  public void shouldNotCreateAnyGameInBulkWithSamePlayerTwice() throws GameException {
+    try {
+      testModel.createGames(Arrays.asList("player1", "player2", "player3", "player3"));
+    }
+    finally {
+      assertEquals(testModel.getUserGames("player1").size(), 0);
+    }
+  }
+
   @Test
   public void shouldGetGamesUserIsInvolvedIn() throws GameException {
     testModel.createGame("player1", "player2");
@@ -48,6 +83,43 @@ public class GameDaoTest {
     assertEquals(result.get(0), game);
   }
 
+  @Test
+  public void shouldGetUserGamesInCreationOrder() throws GameException {
+    for (int i = 0; i < 10; i++) {
+      testModel.createGame("opponent" + i, "player1");
+      testModel.createGame("player1", "other" + i);
+    }
+
+    List<Game> result = testModel.getUserGames("player1");
+
+    assertEquals(result.size(), 20);
+    for (int i = 1; i < result.size(); i++) {
+      assertEquals(result.get(i).getGameId() > result.get(i - 1).getGameId(), true);
+    }
+    assertEquals(testModel.getUserGames("other3").size(), 1);
+  }
+
+  @Test
+  public void shouldPageThroughGamesByStatus() throws GameException {
+    for (int i = 0; i < 6; i++) {
+      testModel.createGame("player1", "opponent" + i);
+    }
+    testModel.updateGame(1, GameStatus.DRAW);
+    testModel.updateGame(4, GameStatus.PLAYER2_WIN);
+
+    List<Game> finished = testModel.getUserGames("player1", GameFilter.FINISHED, -1, 10);
+    List<Game> firstPage = testModel.getUserGames("player1", GameFilter.PLAYING, -1, 2);
+    List<Game> secondPage = testModel.getUserGames("player1", GameFilter.PLAYING, 2, 2);
+
+    assertEquals(finished.size(), 2);
+    assertEquals(finished.get(1).getGameId(), 4);
+    assertEquals(firstPage.get(0).getGameId(), 0);
+    assertEquals(firstPage.get(1).getGameId(), 2);
+    assertEquals(secondPage.get(0).getGameId(), 3);
+    assertEquals(secondPage.get(1).getGameId(), 5);
+    assertEquals(testModel.getUserGames("opponent4", GameFilter.FINISHED, -1, 10).size(), 1);
+  }
+
   @Test
   public void shouldUpdateGameStatus() throws GameException {
     testModel.createGame("player1", "player2");
@@ -1,13 +1,19 @@
 package dao;
 
+import exception.game.GameException;
 import exception.game.GameNotFoundException;
+import model.Game;
 import model.Move;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.expectThrows;
 
 public class MoveDaoTest {
 
@@ -59,6 +65,86 @@ public class MoveDaoTest {
     assertEquals(result.size(), 1);
   }
 
+  @Test
+  public void shouldDecodePackedMoves() throws GameNotFoundException {
+    testModel.addMove(0, new Move("e7", "e8q", ""));
+    testModel.addMove(0, new Move("a1", "h8", "Player 2 Win"));
+    testModel.addMove(0, move2);
+
+    List<Move> result = testModel.getMovesForGame(0);
+
+    assertEquals(result.get(0).getStartLocation(), "e7");
+    assertEquals(result.get(0).getEndLocation(), "e8q");
+    assertEquals(result.get(1).getEndLocation(), "h8");
+    assertEquals(result.get(1).getResult(), "Player 2 Win");
+    move2.setId(2);
+    assertEquals(result.get(2), move2);
+  }
+
+  @Test
+  public void shouldGetMovesAfterCursor() throws GameNotFoundException {
+    testModel.addMove(0, move0);
+    testModel.addMove(0, move1);
+    testModel.addMove(0, move2);
+
+    List<Move> result = testModel.getMovesForGame(0, 0, 1);
+
+    assertEquals(result.size(), 1);
+    assertEquals(result.get(0).getStartLocation(), "start1");
+    assertEquals(testModel.getMovesForGame(0, 0, 10).size(), 2);
+    assertEquals(testModel.getMovesForGame(0, 2, 10).size(), 0);
+    assertEquals(testModel.getMovesForGame(0, -1, 10).size(), 3);
+  }
+
+  @Test
+  public void shouldGetNoMovesAfterLargestCursor() throws GameNotFoundException {
+    testModel.addMove(0, move0);
+    testModel.addMove(0, move1);
+
+    assertEquals(testModel.getMovesForGame(0, Integer.MAX_VALUE, 10).size(), 0);
+    assertEquals(testModel.getMovesForGame(0, Integer.MIN_VALUE, 10).size(), 2);
+  }
+
+  @Test
+  public void shouldRebuildMovesFromJournal() throws GameNotFoundException, IOException {
+    Path directory = Files.createTempDirectory("move-journal");
+    MoveJournal journal = new MoveJournal(directory, 4096, MoveJournal.Durability.GROUP_COMMIT, 1);
+    testModel = new MoveDao(journal);
+    testModel.addMove(0, move0);
+    testModel.addMove(1, move1);
+    testModel.addMove(1, move2);
+    journal.close();
+
+    MoveJournal reopened = new MoveJournal(directory, 4096, MoveJournal.Durability.GROUP_COMMIT, 1);
+    List<Move> result = new MoveDao(reopened).getMovesForGame(1);
+    reopened.close();
+
+    assertEquals(result.size(), 2);
+    assertEquals(result.get(1).getStartLocation(), "start2");
+  }
+
+  @Test
+  public void shouldNotMixNewGamesIntoRecoveredGames() throws GameException, IOException {
+    Path directory = Files.createTempDirectory("move-journal");
+    MoveJournal journal = new MoveJournal(directory, 4096, MoveJournal.Durability.GROUP_COMMIT, 1);
+    testModel = new MoveDao(journal);
+    testModel.addMove(0, move0);
+    testModel.addMove(0, move1);
+    journal.close();
+
+    MoveJournal reopened = new MoveJournal(directory, 4096, MoveJournal.Durability.GROUP_COMMIT, 1);
+    testModel = new MoveDao(reopened);
+    Game game = new GameDao(testModel.nextGameId()).createGame("player1", "player2");
+    expectThrows(GameNotFoundException.class, () -> testModel.getMovesForGame(game.getGameId()));
+    testModel.addMove(game.getGameId(), move2);
+    List<Move> result = testModel.getMovesForGame(game.getGameId());
+    reopened.close();
+
+    assertEquals(result.size(), 1);
+    assertEquals(result.get(0).getStartLocation(), "start2");
+    assertEquals(testModel.getMovesForGame(0).size(), 2);
+  }
+
   @Test (expectedExceptions = GameNotFoundException.class, expectedExceptionsMessageRegExp = ".*Game 0.not found.*")
   public void shouldThrowExceptionWhenGameDoesNotExist() throws GameNotFoundException {
     testModel.getMovesForGame(0);
@@ -0,0 +1,97 @@
+package dao;
+
+import model.Move;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+public class MoveJournalTest {
+
+  private Path directory;
+  private List<Move> recovered;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("move-journal");
+    recovered = new ArrayList<>();
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path segment : stream) {
+        Files.delete(segment);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void shouldRecoverAppendedMoves() throws IOException {
+    MoveJournal journal = openJournal(4096, MoveJournal.Durability.GROUP_COMMIT);
+    journal.awaitDurable(journal.append(0, new Move("e2", "e4", "")));
+    journal.awaitDurable(journal.append(0, new Move("e7", "e5", "Draw")));
+    journal.close();
+
+    openJournal(4096, MoveJournal.Durability.GROUP_COMMIT).close();
+
+    assertEquals(recovered.size(), 2);
+    assertEquals(recovered.get(1).getStartLocation(), "e7");
+    assertEquals(recovered.get(1).getEndLocation(), "e5");
+    assertEquals(recovered.get(1).getResult(), "Draw");
+  }
+
+  @Test
+  public void shouldRollOverToNewSegments() throws IOException {
+    MoveJournal journal = openJournal(128, MoveJournal.Durability.ASYNC);
+    for (int i = 0; i < 20; i++) {
+      journal.append(i, new Move("a" + i, "b" + i, ""));
+    }
+    journal.close();
+
+    openJournal(128, MoveJournal.Durability.ASYNC).close();
+
+    assertEquals(recovered.size(), 20);
+    assertEquals(recovered.get(19).getGameId(), 19);
+    assertEquals(recovered.get(19).getStartLocation(), "a19");
+  }
+
+  @Test
+  public void shouldIgnoreCorruptTail() throws IOException {
+    MoveJournal journal = openJournal(4096, MoveJournal.Durability.NONE);
+    journal.append(0, new Move("e2", "e4", ""));
+    journal.append(0, new Move("e7", "e5", ""));
+    journal.close();
+
+    Path segment = directory.resolve("moves-0000000000.journal");
+    try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+      file.seek(45);
+      file.write(0x7f);
+    }
+
+    MoveJournal reopened = openJournal(4096, MoveJournal.Durability.NONE);
+    reopened.append(0, new Move("d2", "d4", ""));
+    reopened.close();
+    recovered.clear();
+    openJournal(4096, MoveJournal.Durability.NONE).close();
+
+    assertEquals(recovered.size(), 2);
+    assertEquals(recovered.get(1).getStartLocation(), "d2");
+  }
+
+  private MoveJournal openJournal(int segmentSize, MoveJournal.Durability durability) throws IOException {
+    MoveJournal journal = new MoveJournal(directory, segmentSize, durability, 1);
+    journal.recover((gameId, move) -> recovered.add(move));
+    return journal;
+  }
+}
@@ -2,10 +2,16 @@ package dao;
 
 import exception.user.UserNotFoundException;
 import model.User;
+import model.UserInfo;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.testng.Assert.assertEquals;
@@ -40,6 +46,25 @@ public class UserDaoTest {
     assertEquals(result, users);
   }
 
+  @Test
+  public void shouldRevokeCookiesWhenPasswordChanges() throws UserNotFoundException {
+    testModel.addUser(user1);
+
+    testModel.updateUser(new User("user1", "newPassword", "email1"));
+
+    assertEquals(testModel.getUser("user1").getCookieVersion(), 1);
+  }
+
+  @Test
+  public void shouldKeepCookiesWhenPasswordIsUnchanged() throws UserNotFoundException {
+    user1.revokeCookies();
+    testModel.addUser(user1);
+
+    testModel.updateUser(new User("user1", "password1", "newEmail"));
+
+    assertEquals(testModel.getUser("user1").getCookieVersion(), 1);
+  }
+
   @Test
   public void shouldGetASingleUser() throws UserNotFoundException {
     testModel.addUser(user1);
@@ -78,6 +103,39 @@ public class UserDaoTest {
     assertEquals(result, user1);
   }
 
+  @Test
+  public void shouldKeepRecordWhenUpdatingUser() throws UserNotFoundException {
+    testModel.addUser(user1);
+    User record = new User(user1);
+    record.setRecord(1016, 1, 0, 0);
+    testModel.updateRecords(Collections.singletonList(record));
+
+    User update = new User("user1", "password1", "newEmail");
+    update.setRecord(3000, 100, 0, 0);
+    testModel.updateUser(update);
+
+    User result = testModel.getUser("user1");
+    assertEquals(result.getEmail(), "newEmail");
+    assertEquals(result.getRank(), 1016);
+    assertEquals(result.getWins(), 1);
+  }
+
+  @Test
+  public void shouldUpdateRecordsOnly() throws UserNotFoundException {
+    testModel.addUser(user1);
+    User record = new User("user1", "stale", "stale");
+    record.setRecord(-16, 0, 1, 2);
+
+    testModel.updateRecords(Arrays.asList(record, new User("missing", "password", "email")));
+
+    User result = testModel.getUser("user1");
+    assertEquals(result.getEmail(), "email1");
+    assertEquals(result.getRank(), -16);
+    assertEquals(result.getLoses(), 1);
+    assertEquals(result.getDraws(), 2);
+    assertEquals(testModel.hasUser("missing"), false);
+  }
+
   @Test (expectedExceptions = UserNotFoundException.class, expectedExceptionsMessageRegExp = ".*User user1 not found.*")
   public void shouldThrowErrorIfUserNotFoundWhenUpdating() throws UserNotFoundException {
     testModel.addUser(user2);
@@ -87,6 +145,25 @@ public class UserDaoTest {
     testModel.updateUser(user1);
   }
 
+  @Test
+  public void shouldKeepUsersAcrossRestarts() throws IOException, UserNotFoundException {
+    Path directory = Files.createTempDirectory("user-store");
+    UserStore store = new UserStore(directory, 1000, 60000);
+    testModel = new UserDao(store);
+    testModel.addUser(user1);
+    testModel.addUser(user2);
+    user2.setOffline();
+    testModel.updateUser(user2);
+    store.close();
+
+    UserStore reopened = new UserStore(directory, 1000, 60000);
+    UserDao result = new UserDao(reopened);
+    reopened.close();
+
+    assertEquals(result.getAllUsers().size(), 2);
+    assertEquals(new UserInfo(result.getUser("user2")), new UserInfo(user2));
+  }
+
   @Test
   public void shouldReturnTrueIfUserExists() {
     testModel.addUser(user1);
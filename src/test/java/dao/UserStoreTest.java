@@ -0,0 +1,153 @@
+package dao;
+
+import model.User;
+import model.UserInfo;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+
+public class UserStoreTest {
+
+  private Path directory;
+  private UserStore testModel;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("user-store");
+    testModel = new UserStore(directory, 1000, 60000);
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    testModel.close();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path file : stream) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void shouldRecoverFromSnapshotAndLog() throws IOException {
+    Map<String, User> users = testModel.recover();
+    for (int i = 0; i < 40000; i++) {
+      User user = new User("user" + i, "password" + i, "email" + i);
+      testModel.append(user, () -> users.put(user.getUsername(), user));
+    }
+    testModel.snapshot(users::values);
+    User updated = new User("user7", "newPassword", "newEmail");
+    updated.setOffline();
+    testModel.append(updated, () -> users.put(updated.getUsername(), updated));
+    testModel.close();
+
+    testModel = new UserStore(directory, 1000, 60000);
+    Map<String, User> result = testModel.recover();
+
+    assertEquals(result.size(), 40000);
+    assertEquals(new UserInfo(result.get("user39999")), new UserInfo(users.get("user39999")));
+    assertEquals(new UserInfo(result.get("user7")), new UserInfo(updated));
+    assertEquals(result.get("user7").getPassword(), "newPassword");
+  }
+
+  @Test
+  public void shouldRecoverBatchWhole() throws IOException {
+    Map<String, User> users = testModel.recover();
+    User user = new User("user0", "password0", "email0");
+    testModel.append(user, () -> users.put(user.getUsername(), user));
+    List<User> batch = Arrays.asList(new User("user1", "password1", "email1"),
+            new User("user2", "password2", "email2"));
+    testModel.append(batch, () -> batch.forEach(u -> users.put(u.getUsername(), u)));
+    testModel.close();
+
+    testModel = new UserStore(directory, 1000, 60000);
+    assertEquals(testModel.recover().keySet(), users.keySet());
+  }
+
+  @Test
+  public void shouldDropTornBatchWhole() throws IOException {
+    Map<String, User> users = testModel.recover();
+    User user = new User("user0", "password0", "email0");
+    testModel.append(user, () -> users.put(user.getUsername(), user));
+    List<User> batch = Arrays.asList(new User("user1", "password1", "email1"),
+            new User("user2", "password2", "email2"));
+    testModel.append(batch, () -> batch.forEach(u -> users.put(u.getUsername(), u)));
+    testModel.close();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.wal");
+         FileChannel log = FileChannel.open(stream.iterator().next(), StandardOpenOption.WRITE)) {
+      log.truncate(log.size() - 1);
+    }
+
+    testModel = new UserStore(directory, 1000, 60000);
+    assertEquals(testModel.recover().keySet(), Collections.singleton("user0"));
+  }
+
+  @Test
+  public void shouldDeleteFilesCoveredBySnapshot() throws IOException {
+    Map<String, User> users = testModel.recover();
+    User user = new User("user1", "password1", "email1");
+    testModel.append(user, () -> users.put(user.getUsername(), user));
+
+    testModel.snapshot(users::values);
+    testModel.snapshot(users::values);
+
+    int files = 0;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path ignored : stream) {
+        files++;
+      }
+    }
+    assertEquals(files, 2);
+  }
+
+  @Test
+  public void shouldRecoverWhenUsersAreWrittenDuringSnapshots() throws Exception {
+    Map<String, User> users = testModel.recover();
+    for (int i = 0; i < 20000; i++) {
+      User user = new User("user" + i, "password" + i, "email" + i);
+      testModel.append(user, () -> users.put(user.getUsername(), user));
+    }
+    AtomicBoolean writing = new AtomicBoolean(true);
+    AtomicInteger written = new AtomicInteger();
+    Thread writer = new Thread(() -> {
+      try {
+        while (writing.get()) {
+          User user = new User("writer" + written.get(), "password", "email");
+          testModel.append(user, () -> users.put(user.getUsername(), user));
+          written.incrementAndGet();
+        }
+      }
+      catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    writer.start();
+    for (int i = 0; i < 5; i++) {
+      testModel.snapshot(users::values);
+    }
+    writing.set(false);
+    writer.join();
+    testModel.close();
+
+    testModel = new UserStore(directory, 1000, 60000);
+    Map<String, User> result = testModel.recover();
+
+    assertEquals(result.size(), 20000 + written.get());
+    assertEquals(result.get("writer0").getEmail(), "email");
+  }
+}
@@ -6,15 +6,20 @@ import exception.user.InvalidUserCookieException;
 import exception.user.UserNotFoundException;
 import manager.ClientConnectionManager;
 import manager.CookieManager;
+import manager.MatchmakingManager;
 import model.Game;
 import model.GameStatus;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.assertEquals;
@@ -27,15 +32,19 @@ public class GameFacadeTest {
   private ClientConnectionManager mockClientConnectionManager;
   @Mock
   private CookieManager mockCookieManager;
+  @Mock
+  private MatchmakingManager mockMatchmakingManager;
+  @Captor
+  private ArgumentCaptor<Consumer<List<String>>> listener;
 
   private List<Game> games;
 
   private GameFacade testModel;
 
   @BeforeMethod
-  public void setUp() throws GameException {
+  public void setUp() throws GameException, UserNotFoundException {
     MockitoAnnotations.initMocks(this);
-    testModel = new GameFacade(mockGameDao, mockCookieManager, mockClientConnectionManager);
+    testModel = new GameFacade(mockGameDao, mockCookieManager, mockClientConnectionManager, mockMatchmakingManager);
 
     games = new ArrayList<>();
 
@@ -52,6 +61,7 @@ public class GameFacadeTest {
     when(mockGameDao.createGame("player1", "pamela")).thenReturn(game1);
     when(mockGameDao.createGame("player2", "player4")).thenReturn(game2);
     when(mockGameDao.createGame("player2", "player1")).thenReturn(game3);
+    when(mockMatchmakingManager.match("player2")).thenReturn("player1");
   }
 
   @Test
@@ -70,9 +80,10 @@ public class GameFacadeTest {
 
   @Test
   public void shouldAddPlayerToQueue() throws InvalidUserCookieException, GameException, UserNotFoundException {
-    testModel.createRandomGame("player2", "anotherCookie");
+    testModel.createRandomGame("player1", "anotherCookie");
     verify(mockGameDao, never()).createGame(any(), any());
-    verify(mockClientConnectionManager, never()).sendData(eq("player2"), any());
+    verify(mockMatchmakingManager).match("player1");
+    verify(mockClientConnectionManager, never()).sendData(eq("player1"), any());
   }
 
   @Test
@@ -84,6 +95,14 @@ public class GameFacadeTest {
     verify(mockClientConnectionManager, times(2)).sendData(eq("player2"), any());
   }
 
+  @Test
+  public void shouldCancelRandomGame() throws InvalidUserCookieException, UserNotFoundException {
+    when(mockMatchmakingManager.cancel("player1")).thenReturn(true);
+
+    assertEquals(testModel.cancelRandomGame("player1", "cookie"), true);
+    verify(mockCookieManager).validateUserCookie("cookie");
+  }
+
   @Test
   public void shouldCreateMachineLearningGameProperly() throws InvalidUserCookieException, GameException, UserNotFoundException {
     testModel.createGame("player1", "pamela", "cookie");
@@ -91,4 +110,26 @@ public class GameFacadeTest {
     verify(mockClientConnectionManager, times(2)).sendData(eq("player1"), any());
     verify(mockClientConnectionManager, times(2)).sendData(eq("pamela"), any());
   }
+
+  @Test
+  public void shouldNotListenForMatchesWhenCreated() {
+    verify(mockMatchmakingManager, never()).setListener(any());
+  }
+
+  @Test
+  public void shouldCreateGamesMatchedByTickInBulk() throws GameException {
+    List<String> players = Arrays.asList("player1", "player2", "player2", "player4");
+    when(mockGameDao.createGames(players)).thenReturn(Arrays.asList(games.get(0), new Game(2, "player2", "player4",
+            GameStatus.PLAYING)));
+    testModel.listenForMatches();
+    verify(mockMatchmakingManager).setListener(listener.capture());
+
+    listener.getValue().accept(players);
+
+    verify(mockGameDao).createGames(players);
+    verify(mockGameDao, never()).createGame(any(), any());
+    verify(mockClientConnectionManager, times(2)).sendData(eq("player1"), any());
+    verify(mockClientConnectionManager, times(4)).sendData(eq("player2"), any());
+    verify(mockClientConnectionManager, times(2)).sendData(eq("player4"), any());
+  }
 }
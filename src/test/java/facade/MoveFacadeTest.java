@@ -9,6 +9,9 @@ import exception.user.InvalidUserCookieException;
 import exception.user.UserNotFoundException;
 import manager.ClientConnectionManager;
 import manager.CookieManager;
+import manager.StatsManager;
+import model.Game;
+import model.GameStatus;
 import model.Move;
 import model.User;
 import org.mockito.Mock;
@@ -47,6 +50,8 @@ public class MoveFacadeTest {
     private CookieManager mockCookieManager;
     @Mock
     private ClientConnectionManager mockClientConnectionManager;
+    @Mock
+    private StatsManager mockStatsManager;
 
     @BeforeMethod
     public void setUp() throws GameException, InvalidUserCookieException, UserNotFoundException {
@@ -69,7 +74,8 @@ public class MoveFacadeTest {
         doThrow(new InvalidUserCookieException("Invalid User Cookie")).when(mockCookieManager).validateCookies("user1:BADCOOKIE", "1:BADCOOKIE");
         doThrow(new InvalidGameCookieException("Invalid Game Cookie")).when(mockCookieManager).validateCookies("user1:GOODCOOKIE", "1:BADCOOKIE");
 
-        testMoveFacade = new MoveFacade(mockClientConnectionManager, mockCookieManager, mockMoveDao, mockGameDao);
+        testMoveFacade = new MoveFacade(mockClientConnectionManager, mockCookieManager, mockMoveDao, mockGameDao,
+                mockStatsManager);
     }
 
     //getAllUsers
@@ -83,6 +89,24 @@ public class MoveFacadeTest {
 
     }
 
+    @Test
+    public void verifyingResultShouldRecordFinishedGame() throws GameException, InvalidUserCookieException,
+            UserNotFoundException {
+        Game game = new Game(1, "user1", "user2", GameStatus.PLAYING);
+        Move move = new Move("e7", "e8q", "Player 1 Win");
+        when(mockCookieManager.getQualifier("user1:GOODCOOKIE")).thenReturn("user1");
+        when(mockCookieManager.getQualifier("user2:GOODCOOKIE")).thenReturn("user2");
+        when(mockCookieManager.getQualifier("1:GOODCOOKIE")).thenReturn("1");
+        when(mockGameDao.getGame(1)).thenReturn(game);
+
+        testMoveFacade.makeMove(move, "user1:GOODCOOKIE", "1:GOODCOOKIE");
+        testMoveFacade.verifyMove(move, "user2:GOODCOOKIE", "1:GOODCOOKIE");
+
+        verify(mockMoveDao).addMove(1, move);
+        verify(mockGameDao).updateGame(1, GameStatus.PLAYER1_WIN);
+        verify(mockStatsManager).gameFinished(game);
+    }
+
     /*@Test (expectedExceptions = InvalidUserCookieException.class, expectedExceptionsMessageRegExp = ".*Invalid User Cookie.*")
     public void getMovesBadUserCookie() throws InvalidUserCookieException, UserNotFoundException, GameNotFoundException, InvalidGameCookieException {
         List<Move> result = testMoveFacade.getMovesForGame(1, "user1:BADCOOKIE", "1:GOODCOOKIE");
@@ -126,6 +126,7 @@ public class UserFacadeTest {
     user1.setOnline();
     testUserFacade.logout("user1", "GOODCOOKIE");
     assertTrue(!user1.isOnline());
+    assertEquals(user1.getCookieVersion(), 1);
   }
 
   @Test (expectedExceptions = InvalidUserCookieException.class, expectedExceptionsMessageRegExp = ".*Invalid User Cookie.*")
@@ -1,13 +1,380 @@
 package manager;
 
+import model.ConnectionInfo;
+import model.Move;
+import model.MoveEncoding;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class ClientConnectionManagerTest {
 
+  private static final int MAX_QUEUED_EVENTS = 4;
+  private static final long FLUSH_INTERVAL_MILLIS = 20;
+  private static final long HIGH_WATERMARK_BYTES = 256 * 1024;
+  private static final long LOW_WATERMARK_BYTES = 64 * 1024;
+  private static final int REPLAY_EVENTS = 8;
+  private static final int REPLAY_USERS = 100;
+  private static final long REPLAY_TTL_MILLIS = 60 * 1000;
+
+  private MetricsManager metricsManager;
+  private ServerSocket client;
   private ClientConnectionManager testModel;
 
   @BeforeMethod
-  public void setUp() {
-    testModel = new ClientConnectionManager();
+  public void setUp() throws IOException {
+    metricsManager = new MetricsManager();
+    client = new ServerSocket(0);
+    client.setSoTimeout(5000);
+    testModel = newClientConnectionManager(ClientConnectionManager.SlowConsumerPolicy.DROP);
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    testModel.close();
+    client.close();
+  }
+
+  @Test
+  public void shouldCoalesceEventsIntoOneFrame() throws IOException, InterruptedException {
+    testModel.setUpConnection("user1", new ConnectionInfo("localhost", client.getLocalPort()));
+
+    try (Socket socket = client.accept()) {
+      Thread.sleep(FLUSH_INTERVAL_MILLIS);
+      testModel.sendData("user1", new Move("e2", "e4", ""));
+      testModel.sendData("user1", "cookie");
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      ByteBuffer frame = readFrame(in);
+      assertEquals(frame.get(), PushFrameEncoder.VERSION);
+      assertEquals(frame.get(), 2);
+      assertTrue(readVarint(frame) > 0);
+      assertEquals(frame.get(), 0);
+      assertEquals(frame.get(), PushFrameEncoder.MOVE);
+      assertEquals(frame.get(), 0);
+      assertEquals(frame.get(), 0);
+      int packed = (int) readVarint(frame);
+      assertEquals(MoveEncoding.from(packed), MoveEncoding.squareIndex("e2"));
+      assertEquals(MoveEncoding.to(packed), MoveEncoding.squareIndex("e4"));
+      assertEquals(frame.get(), 1);
+      assertEquals(frame.get(), PushFrameEncoder.GAME_COOKIE);
+      assertEquals(readString(frame), "cookie");
+      assertEquals(frame.remaining(), 0);
+      assertEquals(metricsManager.getMetrics().get("push.eventsSent"), 2L);
+    }
+  }
+
+  @Test
+  public void shouldSendEventsOfSeparateTicksInSeparateFrames() throws IOException, InterruptedException {
+    testModel.setUpConnection("user1", new ConnectionInfo("localhost", client.getLocalPort()));
+
+    try (Socket socket = client.accept()) {
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      testModel.sendData("user1", "first");
+      List<String> first = readCookies(readFrame(in));
+      testModel.sendData("user1", "second");
+      List<String> second = readCookies(readFrame(in));
+
+      assertEquals(first.size(), 1);
+      assertTrue(first.get(0).endsWith(":first"));
+      assertEquals(second.size(), 1);
+      assertEquals(second.get(0), (sequence(first.get(0)) + 1) + ":second");
+    }
+  }
+
+  @Test
+  public void shouldResumeAfterLastSequence() throws IOException, InterruptedException {
+    testModel.setUpConnection("user1", new ConnectionInfo("localhost", client.getLocalPort()));
+    long lastSequence;
+    try (Socket socket = client.accept()) {
+      testModel.sendData("user1", "first");
+      lastSequence = sequence(readCookies(readFrame(new DataInputStream(socket.getInputStream()))).get(0));
+    }
+    waitForMetric("push.connections", 0);
+    testModel.sendData("user1", "second");
+    testModel.sendData("user1", "third");
+
+    testModel.setUpConnection("user1", new ConnectionInfo("localhost", client.getLocalPort(), lastSequence));
+
+    try (Socket socket = client.accept()) {
+      List<String> missed = readCookies(readFrame(new DataInputStream(socket.getInputStream())));
+      assertEquals(missed, Arrays.asList((lastSequence + 1) + ":second", (lastSequence + 2) + ":third"));
+      assertEquals(metricsManager.getMetrics().get("push.eventsReplayed"), 2L);
+    }
+  }
+
+  @Test
+  public void shouldResetWhenMissedEventsAreNoLongerKept() throws IOException {
+    testModel.sendData("user1", "first");
+
+    testModel.setUpConnection("user1", new ConnectionInfo("localhost", client.getLocalPort(), 1L));
+
+    try (Socket socket = client.accept()) {
+      List<String> events = readCookies(readFrame(new DataInputStream(socket.getInputStream())));
+      assertEquals(events.size(), 1);
+      assertTrue(events.get(0).endsWith(":RESET"));
+      assertEquals(metricsManager.getMetrics().get("push.resets"), 1L);
+    }
+  }
+
+  @Test
+  public void shouldNotSendToUserWithoutConnection() {
+    testModel.sendData("user1", "cookie");
+
+    assertEquals(metricsManager.getMetrics().get("push.eventsUndeliverable"), 1L);
+  }
+
+  @Test
+  public void shouldNotBlockOnClientThatDoesNotRead() throws IOException {
+    testModel.setUpConnection("user1", new ConnectionInfo("localhost", client.getLocalPort()));
+    String data = payload(64 * 1024);
+
+    Socket socket = client.accept();
+    try {
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < 1000; i++) {
+        testModel.sendData("user1", data);
+      }
+
+      assertTrue(System.currentTimeMillis() - start < 5000);
+      assertTrue(metricsManager.getMetrics().get("push.eventsDropped").longValue() > 0);
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void shouldDropEventsForSlowConsumerUntilBelowLowWatermark() throws IOException, InterruptedException {
+    ServletOutputStream out = mock(ServletOutputStream.class);
+    CountDownLatch written = countDownOnWrite(out);
+    WriteListener writeListener = setUpStream("user1", out);
+    String data = payload(100 * 1024);
+
+    testModel.sendData("user1", data);
+    testModel.sendData("user1", data);
+    testModel.sendData("user1", data);
+
+    assertEquals(metricsManager.getMetrics().get("push.slowConsumers"), 1L);
+    assertEquals(metricsManager.getMetrics().get("push.eventsDropped"), 1L);
+    assertEquals(metricsManager.getMetrics().get("push.queuedEvents"), 2L);
+    assertTrue(metricsManager.getMetrics().get("push.pendingBytes").longValue() <= HIGH_WATERMARK_BYTES);
+
+    testModel.sendData("user1", "cookie");
+    assertEquals(metricsManager.getMetrics().get("push.eventsDropped"), 2L);
+
+    when(out.isReady()).thenReturn(true);
+    writeListener.onWritePossible();
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+    waitForMetric("push.pendingBytes", 0);
+    testModel.sendData("user1", "cookie");
+
+    assertEquals(metricsManager.getMetrics().get("push.eventsDropped"), 2L);
+    assertEquals(metricsManager.getMetrics().get("push.queuedEvents"), 1L);
+  }
+
+  @Test
+  public void shouldDisconnectSlowConsumer() throws IOException {
+    testModel.close();
+    metricsManager = new MetricsManager();
+    testModel = newClientConnectionManager(ClientConnectionManager.SlowConsumerPolicy.DISCONNECT);
+    testModel.setUpConnection("user1", new ConnectionInfo("localhost", client.getLocalPort()));
+    String data = payload(64 * 1024);
+
+    Socket socket = client.accept();
+    try {
+      for (int i = 0; i < 1000 && metricsManager.getMetrics().get("push.evictions").longValue() == 0; i++) {
+        testModel.sendData("user1", data);
+      }
+
+      assertEquals(metricsManager.getMetrics().get("push.evictions"), 1L);
+      assertEquals(metricsManager.getMetrics().get("push.connections"), 0);
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void shouldForgetConnectionClosedByClient() throws IOException, InterruptedException {
+    testModel.setUpConnection("user1", new ConnectionInfo("localhost", client.getLocalPort()));
+    client.accept().close();
+
+    waitForMetric("push.connections", 0);
+
+    assertEquals(metricsManager.getMetrics().get("push.connections"), 0);
+  }
+
+  @Test
+  public void shouldForgetConnectionToHostThatDoesNotResolve() throws InterruptedException {
+    testModel.setUpConnection("user1", new ConnectionInfo("client.invalid", 80));
+
+    waitForMetric("push.connections", 0);
+
+    assertEquals(metricsManager.getMetrics().get("push.connections"), 0);
+  }
+
+  @Test
+  public void shouldStreamCoalescedEventsAsOneMessage() throws IOException, InterruptedException {
+    ServletOutputStream out = mock(ServletOutputStream.class);
+    when(out.isReady()).thenReturn(true);
+    CountDownLatch written = countDownOnWrite(out);
+    WriteListener writeListener = setUpStream("user1", out);
+
+    testModel.sendData("user1", "first");
+    testModel.sendData("user1", "second");
+    writeListener.onWritePossible();
+
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+    ArgumentCaptor<byte[]> message = ArgumentCaptor.forClass(byte[].class);
+    verify(out).write(message.capture());
+    Matcher messages = Pattern.compile("id: (\\d+)\ndata: \"first\"\n\nid: (\\d+)\ndata: \"second\"\n\n")
+            .matcher(new String(message.getValue(), StandardCharsets.UTF_8));
+    assertTrue(messages.matches());
+    assertEquals(Long.parseLong(messages.group(2)), Long.parseLong(messages.group(1)) + 1);
+  }
+
+  @Test
+  public void shouldWaitForStreamToBeReady() throws IOException, InterruptedException {
+    ServletOutputStream out = mock(ServletOutputStream.class);
+    CountDownLatch written = countDownOnWrite(out);
+    WriteListener writeListener = setUpStream("user1", out);
+
+    testModel.sendData("user1", "cookie");
+    Thread.sleep(10 * FLUSH_INTERVAL_MILLIS);
+    assertEquals(written.getCount(), 1);
+    when(out.isReady()).thenReturn(true);
+    writeListener.onWritePossible();
+
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldCompleteReplacedStream() throws IOException, InterruptedException {
+    AsyncContext first = mock(AsyncContext.class);
+    CountDownLatch completed = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      completed.countDown();
+      return null;
+    }).when(first).complete();
+    ServletResponse response = mock(ServletResponse.class);
+    when(first.getResponse()).thenReturn(response);
+    when(response.getOutputStream()).thenReturn(mock(ServletOutputStream.class));
+    testModel.setUpStream("user1", first, null);
+
+    setUpStream("user1", mock(ServletOutputStream.class));
+
+    assertTrue(completed.await(5, TimeUnit.SECONDS));
+    assertEquals(metricsManager.getMetrics().get("push.connections"), 1);
+  }
+
+  private ClientConnectionManager newClientConnectionManager(ClientConnectionManager.SlowConsumerPolicy policy) {
+    return new ClientConnectionManager(metricsManager, MAX_QUEUED_EVENTS, FLUSH_INTERVAL_MILLIS, HIGH_WATERMARK_BYTES,
+            LOW_WATERMARK_BYTES, policy, REPLAY_EVENTS, REPLAY_USERS, REPLAY_TTL_MILLIS);
+  }
+
+  private String payload(int length) {
+    char[] payload = new char[length];
+    Arrays.fill(payload, 'x');
+    return new String(payload);
+  }
+
+  private void waitForMetric(String name, long value) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (metricsManager.getMetrics().get(name).longValue() != value && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  private CountDownLatch countDownOnWrite(ServletOutputStream out) throws IOException {
+    CountDownLatch written = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      written.countDown();
+      return null;
+    }).when(out).write(any(byte[].class));
+    return written;
+  }
+
+  private WriteListener setUpStream(String username, ServletOutputStream out) throws IOException {
+    AsyncContext asyncContext = mock(AsyncContext.class);
+    ServletResponse response = mock(ServletResponse.class);
+    when(asyncContext.getResponse()).thenReturn(response);
+    when(response.getOutputStream()).thenReturn(out);
+    testModel.setUpStream(username, asyncContext, null);
+    ArgumentCaptor<WriteListener> writeListener = ArgumentCaptor.forClass(WriteListener.class);
+    verify(out).setWriteListener(writeListener.capture());
+    return writeListener.getValue();
+  }
+
+  private ByteBuffer readFrame(DataInputStream in) throws IOException {
+    byte[] frame = new byte[in.readInt()];
+    in.readFully(frame);
+    return ByteBuffer.wrap(frame);
+  }
+
+  /**
+   * Reads a frame of cookies and resets.
+   *
+   * @return "sequence:cookie" or "sequence:RESET" for each event.
+   */
+  private List<String> readCookies(ByteBuffer frame) {
+    assertEquals(frame.get(), PushFrameEncoder.VERSION);
+    long count = readVarint(frame);
+    long sequence = readVarint(frame);
+    List<String> events = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      sequence += readVarint(frame);
+      byte type = frame.get();
+      events.add(sequence + ":" + (type == PushFrameEncoder.RESET ? "RESET" : readString(frame)));
+    }
+    assertEquals(frame.remaining(), 0);
+    return events;
+  }
+
+  private long sequence(String event) {
+    return Long.parseLong(event.substring(0, event.indexOf(':')));
+  }
+
+  private long readVarint(ByteBuffer frame) {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = frame.get();
+      value |= (b & 0x7FL) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  private String readString(ByteBuffer frame) {
+    byte[] bytes = new byte[(int) readVarint(frame)];
+    frame.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
   }
 }
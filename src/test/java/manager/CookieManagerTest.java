@@ -15,9 +15,14 @@ import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.*;
@@ -43,8 +48,9 @@ public class CookieManagerTest {
         users.add(user2);
 
         when(mockUserDAO.getAllUsers()).thenReturn(users);
-        when(mockUserDAO.getUser("user1")).thenReturn(user1);
-        when(mockUserDAO.getUser("user2")).thenReturn(user2);
+        doThrow(new UserNotFoundException("User Not Found")).when(mockUserDAO).getUser(anyString());
+        doReturn(user1).when(mockUserDAO).getUser("user1");
+        doReturn(user2).when(mockUserDAO).getUser("user2");
 
 
         Game game1 = new Game(1, "player1", "player2", null);
@@ -53,7 +59,8 @@ public class CookieManagerTest {
         when(mockGameDAO.getGame(1)).thenReturn(game1);
         when(mockGameDAO.getGame(2)).thenReturn(game2);
 
-        testCookieManager = new CookieManager(mockUserDAO, mockGameDAO);
+        testCookieManager = new CookieManager(mockUserDAO, mockGameDAO, new byte[32],
+                Clock.fixed(Instant.now(), ZoneOffset.UTC), 60000, 60000);
     }
 
     @Test
@@ -83,12 +90,53 @@ public class CookieManagerTest {
         testCookieManager.validateUserCookie(user1Cookie);
     }
 
-    @Test (expectedExceptions = UserNotFoundException.class, expectedExceptionsMessageRegExp = ".*User Not Found.*")
+    @Test (expectedExceptions = InvalidUserCookieException.class, expectedExceptionsMessageRegExp = ".*Invalid User Cookie.*")
     public void shouldNotValidateCookieBadUserName() throws InvalidUserCookieException, UserNotFoundException {
-        doThrow(new UserNotFoundException("User Not Found")).when(mockUserDAO).getUser("user5");
         testCookieManager.validateUserCookie("user5:blahblahblah");
     }
 
+    @Test (expectedExceptions = UserNotFoundException.class, expectedExceptionsMessageRegExp = ".*User Not Found.*")
+    public void shouldNotMakeCookieForUnknownUser() throws UserNotFoundException {
+        doThrow(new UserNotFoundException("User Not Found")).when(mockUserDAO).getUser("user5");
+        testCookieManager.makeUserCookie("user5");
+    }
+
+    @Test (expectedExceptions = InvalidUserCookieException.class, expectedExceptionsMessageRegExp = ".*Invalid User Cookie.*")
+    public void shouldNotValidateCookieForAnotherUser() throws InvalidUserCookieException, UserNotFoundException {
+        String user1Cookie = testCookieManager.makeUserCookie("user1");
+        testCookieManager.validateUserCookie("user2" + user1Cookie.substring(user1Cookie.indexOf(':')));
+    }
+
+    @Test (expectedExceptions = InvalidUserCookieException.class, expectedExceptionsMessageRegExp = ".*Invalid User Cookie.*")
+    public void shouldNotValidateCookieAfterPasswordChange() throws InvalidUserCookieException, UserNotFoundException {
+        String user1Cookie = testCookieManager.makeUserCookie("user1");
+        User changed = new User("user1", "newPassword", "email1");
+        changed.resetCookieVersion(mockUserDAO.getUser("user1").getCookieVersion() + 1);
+        when(mockUserDAO.getUser("user1")).thenReturn(changed);
+        testCookieManager.validateUserCookie(user1Cookie);
+    }
+
+    @Test
+    public void shouldValidateCookieIssuedAfterRevocation() throws InvalidUserCookieException, UserNotFoundException {
+        mockUserDAO.getUser("user1").revokeCookies();
+        testCookieManager.validateUserCookie(testCookieManager.makeUserCookie("user1"));
+    }
+
+    @Test (expectedExceptions = InvalidUserCookieException.class, expectedExceptionsMessageRegExp = ".*Invalid User Cookie.*")
+    public void shouldNotValidateExpiredCookie() throws InvalidUserCookieException, UserNotFoundException {
+        Clock issued = Clock.fixed(Instant.ofEpochMilli(1000), ZoneOffset.UTC);
+        Clock later = Clock.fixed(Instant.ofEpochMilli(1101), ZoneOffset.UTC);
+        byte[] key = new byte[32];
+        String cookie = new CookieManager(mockUserDAO, mockGameDAO, key, issued, 100, 100).makeUserCookie("user1");
+        new CookieManager(mockUserDAO, mockGameDAO, key, later, 100, 100).validateUserCookie(cookie);
+    }
+
+    @Test (expectedExceptions = InvalidUserCookieException.class, expectedExceptionsMessageRegExp = ".*Invalid User Cookie.*")
+    public void shouldNotValidateGameCookieAsUserCookie() throws InvalidUserCookieException, UserNotFoundException,
+            GameNotFoundException {
+        testCookieManager.validateUserCookie(testCookieManager.makeGameCookie(1));
+    }
+
     @Test (expectedExceptions = InvalidUserCookieException.class, expectedExceptionsMessageRegExp = ".*Invalid User Cookie.*")
     public void shouldNotValidateCookieBadUserNameNoColon() throws InvalidUserCookieException, UserNotFoundException {
         testCookieManager.validateUserCookie("user5blahblahblah");
@@ -108,6 +156,11 @@ public class CookieManagerTest {
         assertNotEquals(cookie1, cookie2);
     }
 
+    @Test
+    public void shouldValidateGameCookie() throws GameNotFoundException, InvalidGameCookieException {
+        testCookieManager.validateGameCookie(testCookieManager.makeGameCookie(2));
+    }
+
     @Test (expectedExceptions = InvalidGameCookieException.class, expectedExceptionsMessageRegExp = ".*Invalid Game Cookie.*")
     public void shouldNotValidateCookie() throws InvalidGameCookieException, GameNotFoundException {
         testCookieManager.validateGameCookie("1:blahblahblah");
@@ -0,0 +1,78 @@
+package manager;
+
+import org.testng.annotations.Test;
+
+import javax.crypto.spec.DHParameterSpec;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DHGroupsTest {
+
+  private static final BigInteger TWO = BigInteger.valueOf(2);
+
+  @Test
+  public void shouldBundleSafePrimeGroups() {
+    List<DHParameterSpec> groups = DHGroups.readBundled();
+
+    assertFalse(groups.isEmpty());
+    for (DHParameterSpec group : groups) {
+      assertSafeGroup(group, 500);
+    }
+  }
+
+  @Test
+  public void shouldGenerateSafePrimeGroup() {
+    assertSafeGroup(DHGroups.generate(64, new SecureRandom()), 64);
+  }
+
+  @Test
+  public void shouldSkipCommentsAndBlankLines() throws IOException {
+    List<DHParameterSpec> groups = DHGroups.read(new BufferedReader(new StringReader("# comment\n\n5:17\n")));
+
+    assertEquals(groups.size(), 1);
+    assertEquals(groups.get(0).getG(), BigInteger.valueOf(5));
+    assertEquals(groups.get(0).getP(), BigInteger.valueOf(23));
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void shouldRejectMalformedLine() throws IOException {
+    DHGroups.read(new BufferedReader(new StringReader("5-17\n")));
+  }
+
+  @Test
+  public void shouldReadBackWrittenGroups() throws IOException {
+    Path directory = Files.createTempDirectory("dh-groups");
+    Path file = directory.resolve("groups.txt");
+    List<DHParameterSpec> groups = Arrays.asList(new DHParameterSpec(BigInteger.valueOf(23), BigInteger.valueOf(5)),
+            new DHParameterSpec(BigInteger.valueOf(47), BigInteger.valueOf(5)));
+
+    DHGroups.write(file, groups);
+    List<DHParameterSpec> result = DHGroups.read(file);
+
+    assertEquals(result.size(), 2);
+    assertEquals(result.get(1).getP(), BigInteger.valueOf(47));
+    Files.delete(file);
+    Files.delete(directory);
+  }
+
+  private void assertSafeGroup(DHParameterSpec group, int bits) {
+    BigInteger p = group.getP();
+    BigInteger q = p.subtract(BigInteger.ONE).divide(TWO);
+    assertEquals(p.bitLength(), bits);
+    assertTrue(p.isProbablePrime(64));
+    assertTrue(q.isProbablePrime(64));
+    assertFalse(group.getG().modPow(q, p).equals(BigInteger.ONE));
+    assertFalse(group.getG().modPow(TWO, p).equals(BigInteger.ONE));
+  }
+}
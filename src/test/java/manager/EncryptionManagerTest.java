@@ -1,18 +1,35 @@
 package manager;
 
+import exception.ServerException;
 import exception.user.UserNotFoundException;
 import model.DHParams;
+import model.ECDHParams;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
 import javax.crypto.spec.DHParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotEquals;
@@ -23,7 +40,7 @@ public class EncryptionManagerTest {
 
   @BeforeMethod
   public void setUp() {
-    testModel = new EncryptionManager();
+    testModel = new EncryptionManager(new MetricsManager(), 1);
   }
 
   @Test
@@ -54,7 +71,7 @@ public class EncryptionManagerTest {
   public void shouldGenerateSameSharedKey() throws UserNotFoundException {
     byte[] newSharedKey = generateSharedKey();
 
-    assertEquals(Arrays.toString(newSharedKey), Arrays.toString(testModel.sharedKeys.get("test1")));
+    assertEquals(Arrays.toString(newSharedKey), Arrays.toString(testModel.sharedKeys.get("test1").getEncoded()));
   }
 
   @Test (expectedExceptions = UserNotFoundException.class, expectedExceptionsMessageRegExp = ".*initial parameters.*")
@@ -84,14 +101,123 @@ public class EncryptionManagerTest {
     assertEquals(decryptedPassword, password);
   }
 
+  @Test
+  public void shouldDecryptPasswordWithOffHeapKeys() throws UserNotFoundException, GeneralSecurityException {
+    testModel = new EncryptionManager(new MetricsManager(), 1, 10, 60000, true);
+
+    byte[] encrypted = encrypt(generateSharedKey("test1"), "password");
+
+    assertEquals(testModel.decryptPassword("test1", encrypted), "password");
+  }
+
+  @Test (expectedExceptions = UserNotFoundException.class,
+          expectedExceptionsMessageRegExp = ".*User test1 does not have a shared key.*")
+  public void shouldForgetSharedKeyOfEvictedUser() throws UserNotFoundException, GeneralSecurityException {
+    testModel = new EncryptionManager(new MetricsManager(), 1, 1, 60000, false);
+    byte[] encrypted = encrypt(generateSharedKey("test1"), "password");
+    generateSharedKey("test2");
+
+    testModel.decryptPassword("test1", encrypted);
+  }
+
+  @Test
+  public void shouldSendEcdhPublicKey() {
+    ECDHParams result = testModel.getEcdhParameters("test1");
+
+    assertEquals(result.getCurve(), EncryptionManager.EC_CURVE);
+    assertEquals(result.getPublicKey(), testModel.getEcdhParameters("test1").getPublicKey());
+    assertNotEquals(result.getPublicKey(), testModel.getEcdhParameters("test2").getPublicKey());
+  }
+
+  @Test
+  public void shouldDecryptPasswordWithEcdhSharedKey() throws UserNotFoundException, GeneralSecurityException {
+    ECDHParams serverParams = testModel.getEcdhParameters("test1");
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec(EncryptionManager.EC_CURVE));
+    KeyPair client = generator.generateKeyPair();
+    KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH");
+    keyAgreement.init(client.getPrivate());
+    keyAgreement.doPhase(KeyFactory.getInstance("EC").generatePublic(
+            new X509EncodedKeySpec(serverParams.getPublicKey())), true);
+    byte[] sharedKey = Arrays.copyOf(MessageDigest.getInstance("SHA-256").digest(keyAgreement.generateSecret()), 16);
+
+    testModel.generateEcdhSharedKey("test1", new ECDHParams(EncryptionManager.EC_CURVE,
+            client.getPublic().getEncoded()));
+
+    assertEquals(testModel.decryptPassword("test1", encrypt(sharedKey, "password")), "password");
+  }
+
+  @Test (expectedExceptions = UserNotFoundException.class, expectedExceptionsMessageRegExp = ".*initial parameters.*")
+  public void shouldThrowExceptionWhenEcdhSharedKeyIsAttemptedWithoutInitialization() throws UserNotFoundException {
+    testModel.generateEcdhSharedKey("test1", new ECDHParams(EncryptionManager.EC_CURVE, new byte[91]));
+  }
+
+  @Test (expectedExceptions = ServerException.class)
+  public void shouldRejectUnsupportedCurve() throws UserNotFoundException {
+    testModel.getEcdhParameters("test1");
+    testModel.generateEcdhSharedKey("test1", new ECDHParams("secp384r1", new byte[120]));
+  }
+
+  @Test
+  public void shouldDecryptPasswordsInBatch() throws UserNotFoundException, GeneralSecurityException {
+    Map<String, byte[]> passwords = new HashMap<>();
+    passwords.put("test1", encrypt(generateSharedKey("test1"), "password1"));
+    passwords.put("test2", encrypt(generateSharedKey("test2"), "password2"));
+
+    Map<String, String> result = testModel.decryptPasswords(passwords);
+
+    assertEquals(result.get("test1"), "password1");
+    assertEquals(result.get("test2"), "password2");
+  }
+
+  @Test (expectedExceptions = UserNotFoundException.class,
+          expectedExceptionsMessageRegExp = ".*User test2 does not have a shared key.*")
+  public void shouldThrowExceptionWhenBatchContainsUserWithoutSharedKey()
+          throws UserNotFoundException, GeneralSecurityException {
+    Map<String, byte[]> passwords = new HashMap<>();
+    passwords.put("test1", encrypt(generateSharedKey("test1"), "password1"));
+    passwords.put("test2", "password".getBytes());
+
+    testModel.decryptPasswords(passwords);
+  }
+
+  @Test
+  public void shouldDecryptPasswordsConcurrently() throws Exception {
+    byte[] encrypted = encrypt(generateSharedKey("test1"), "password");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        results.add(executor.submit(() -> testModel.decryptPassword("test1", encrypted)));
+      }
+      for (Future<String> result : results) {
+        assertEquals(result.get(), "password");
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  private byte[] encrypt(byte[] sharedKey, String password) throws GeneralSecurityException {
+    Cipher cipher = Cipher.getInstance(EncryptionManager.ENCRYPTION_MODE);
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(sharedKey, EncryptionManager.ENCRYPTION_ALGORITHM),
+            testModel.parameterSpec);
+    return cipher.doFinal(password.getBytes(StandardCharsets.UTF_8));
+  }
+
   private byte[] generateSharedKey() throws UserNotFoundException {
-    DHParams result = testModel.getPublicParameters("test1");
+    return generateSharedKey("test1");
+  }
+
+  private byte[] generateSharedKey(String username) throws UserNotFoundException {
+    DHParams result = testModel.getPublicParameters(username);
     
     BigInteger a = BigInteger.probablePrime(500, new SecureRandom());
     BigInteger publicKey = testModel.modExp(result.getParams().getG(), a, result.getParams().getP());
 
     BigInteger expectedSharedKey = testModel.modExp(new BigInteger(result.getPublicParam()), a, result.getParams().getP());
-    testModel.generateSharedKey("test1", new DHParams(result.getParams(), publicKey.toByteArray()));
+    testModel.generateSharedKey(username, new DHParams(result.getParams(), publicKey.toByteArray()));
 
     byte[] newSharedKey = new byte[16];
     for (int i = 0; i < 16; i++) {
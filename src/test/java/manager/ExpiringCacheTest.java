@@ -0,0 +1,180 @@
+package manager;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class ExpiringCacheTest {
+
+  private static final long TTL = 1000;
+
+  private ManualClock clock;
+  private List<String> removed;
+  private LongAdder evictions;
+  private LongAdder expirations;
+  private ExpiringCache<String> testModel;
+
+  @BeforeMethod
+  public void setUp() {
+    clock = new ManualClock();
+    removed = new ArrayList<>();
+    evictions = new LongAdder();
+    expirations = new LongAdder();
+    testModel = new ExpiringCache<>(3, TTL, clock, removed::add, evictions, expirations);
+  }
+
+  @Test
+  public void shouldReturnStoredValue() {
+    testModel.put("user1", "value1");
+
+    assertEquals(testModel.get("user1"), "value1");
+  }
+
+  @Test
+  public void shouldNotReturnExpiredValue() {
+    testModel.put("user1", "value1");
+    clock.advance(TTL);
+
+    assertNull(testModel.get("user1"));
+    assertEquals(testModel.size(), 0);
+    assertEquals(expirations.sum(), 1);
+    assertEquals(removed, Arrays.asList("value1"));
+  }
+
+  @Test
+  public void shouldEvictOldestWhenFull() {
+    testModel.put("user1", "value1");
+    testModel.put("user2", "value2");
+    testModel.put("user3", "value3");
+    testModel.put("user4", "value4");
+
+    assertNull(testModel.get("user1"));
+    assertEquals(testModel.get("user4"), "value4");
+    assertEquals(testModel.size(), 3);
+    assertEquals(evictions.sum(), 1);
+    assertEquals(removed, Arrays.asList("value1"));
+  }
+
+  @Test
+  public void shouldKeepExistingValueOnPutIfAbsent() {
+    testModel.put("user1", "value1");
+
+    assertEquals(testModel.putIfAbsent("user1", "value2"), "value1");
+    assertEquals(testModel.get("user1"), "value1");
+  }
+
+  @Test
+  public void shouldReplaceValueAndRestartItsTtl() {
+    testModel.put("user1", "value1");
+    clock.advance(TTL / 2);
+    testModel.put("user1", "value2");
+    clock.advance(TTL / 2);
+
+    assertEquals(testModel.get("user1"), "value2");
+    assertEquals(removed, Arrays.asList("value1"));
+    assertEquals(expirations.sum(), 0);
+  }
+
+  @Test
+  public void shouldNotCountReplacedEntryAsEvicted() {
+    testModel.put("user1", "value1");
+    testModel.put("user1", "value2");
+    testModel.put("user2", "value3");
+    testModel.put("user3", "value4");
+    testModel.put("user4", "value5");
+
+    assertNull(testModel.get("user1"));
+    assertEquals(testModel.size(), 3);
+    assertEquals(evictions.sum(), 1);
+  }
+
+  @Test
+  public void shouldMoveRewrittenKeyToTheBack() {
+    testModel.put("user1", "value1");
+    testModel.put("user2", "value2");
+    testModel.put("user3", "value3");
+    for (int i = 0; i < 1000; i++) {
+      testModel.put("user1", "value" + i);
+    }
+    testModel.put("user4", "value4");
+
+    assertNull(testModel.get("user2"));
+    assertEquals(testModel.get("user1"), "value999");
+    assertEquals(testModel.size(), 3);
+    assertEquals(evictions.sum(), 1);
+  }
+
+  @Test
+  public void shouldKeepRefreshedValue() {
+    testModel.put("user1", "value1");
+    clock.advance(TTL / 2);
+    testModel.getAndRefresh("user1");
+    clock.advance(TTL / 2);
+    testModel.put("user2", "value2");
+
+    assertEquals(testModel.get("user1"), "value1");
+    assertEquals(expirations.sum(), 0);
+
+    clock.advance(TTL / 2);
+    testModel.put("user3", "value3");
+
+    assertNull(testModel.get("user1"));
+    assertEquals(testModel.size(), 2);
+    assertEquals(expirations.sum(), 1);
+    assertEquals(removed, Arrays.asList("value1"));
+  }
+
+  @Test
+  public void shouldReplaceRefreshedValueOnceItExpires() {
+    testModel.put("user1", "value1");
+    clock.advance(TTL / 2);
+    testModel.getAndRefresh("user1");
+    clock.advance(TTL / 2);
+    testModel.put("user2", "value2");
+    clock.advance(TTL / 2);
+
+    assertEquals(testModel.putIfAbsent("user1", "value3"), "value3");
+    assertEquals(expirations.sum(), 1);
+    assertEquals(removed, Arrays.asList("value1"));
+  }
+
+  private static class ManualClock extends Clock {
+
+    private long millis;
+
+    void advance(long delta) {
+      millis += delta;
+    }
+
+    @Override
+    public long millis() {
+      return millis;
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package manager;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+
+public class FixedBaseModExpTest {
+
+  private static final BigInteger G = BigInteger.valueOf(5);
+
+  private Random random;
+  private BigInteger p;
+  private FixedBaseModExp testModel;
+
+  @BeforeMethod
+  public void setUp() {
+    random = new SecureRandom();
+    p = BigInteger.probablePrime(128, random);
+    testModel = new FixedBaseModExp(G, p, 128, 5);
+    testModel.precompute();
+  }
+
+  @Test
+  public void shouldMatchModPow() {
+    for (int i = 0; i < 100; i++) {
+      BigInteger exponent = new BigInteger(1 + random.nextInt(128), random);
+
+      assertEquals(testModel.pow(exponent), G.modPow(exponent, p));
+    }
+  }
+
+  @Test
+  public void shouldMatchModPowBeforePrecompute() {
+    BigInteger exponent = new BigInteger(128, random);
+
+    assertEquals(new FixedBaseModExp(G, p, 128, 5).pow(exponent), G.modPow(exponent, p));
+  }
+
+  @Test
+  public void shouldReturnOneForZeroExponent() {
+    assertEquals(testModel.pow(BigInteger.ZERO), BigInteger.ONE);
+  }
+
+  @Test
+  public void shouldFallBackForExponentWiderThanTable() {
+    BigInteger exponent = BigInteger.ONE.shiftLeft(200).add(BigInteger.TEN);
+
+    assertEquals(testModel.pow(exponent), G.modPow(exponent, p));
+  }
+
+  @Test
+  public void shouldFallBackForNegativeExponent() {
+    BigInteger exponent = BigInteger.valueOf(-12345);
+
+    assertEquals(testModel.pow(exponent), G.modPow(exponent, p));
+  }
+}
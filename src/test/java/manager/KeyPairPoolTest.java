@@ -0,0 +1,75 @@
+package manager;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+public class KeyPairPoolTest {
+
+  private static final int CAPACITY = 4;
+
+  private AtomicInteger generated;
+  private AtomicInteger setUps;
+  private LongAdder refilled;
+  private LongAdder misses;
+  private KeyPairPool<Integer> testModel;
+
+  @BeforeMethod
+  public void setUp() {
+    generated = new AtomicInteger();
+    setUps = new AtomicInteger();
+    refilled = new LongAdder();
+    misses = new LongAdder();
+    testModel = new KeyPairPool<>("test-pool", setUps::incrementAndGet, generated::incrementAndGet, CAPACITY,
+            refilled, misses);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    testModel.close();
+  }
+
+  @Test
+  public void shouldGeneratePairWhenEmpty() {
+    assertEquals(testModel.take(), Integer.valueOf(1));
+    assertEquals(misses.sum(), 1);
+    assertEquals(setUps.get(), 0);
+  }
+
+  @Test
+  public void shouldFillUpToCapacity() throws InterruptedException {
+    testModel.start();
+    waitForRefills(CAPACITY);
+
+    assertEquals(testModel.size(), CAPACITY);
+    assertEquals(setUps.get(), 1);
+  }
+
+  @Test
+  public void shouldRefillAfterTake() throws InterruptedException {
+    testModel.start();
+    waitForRefills(CAPACITY);
+
+    Integer first = testModel.take();
+    Integer second = testModel.take();
+    waitForRefills(CAPACITY + 2);
+
+    assertNotEquals(first, second);
+    assertEquals(misses.sum(), 0);
+    assertEquals(testModel.size(), CAPACITY);
+  }
+
+  private void waitForRefills(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (refilled.sum() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(refilled.sum(), count);
+  }
+}
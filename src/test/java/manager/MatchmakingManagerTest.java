@@ -0,0 +1,329 @@
+package manager;
+
+import dao.UserDao;
+import exception.user.UserNotFoundException;
+import model.User;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class MatchmakingManagerTest {
+
+  private static final int BAND_WIDTH = 100;
+  private static final long WIDEN_INTERVAL_MILLIS = 1000;
+  private static final int MAX_WINDOW = 300;
+  private static final int BATCH_SIZE = 4;
+  private static final long QUEUE_TIMEOUT_MILLIS = 10000;
+
+  @Mock
+  private UserDao mockUserDao;
+  private ManualClock clock;
+  private MetricsManager metricsManager;
+  private MatchmakingManager testModel;
+
+  @BeforeMethod
+  public void setUp() throws UserNotFoundException {
+    MockitoAnnotations.initMocks(this);
+    when(mockUserDao.getUser(anyString())).thenAnswer(invocation -> user((String) invocation.getArguments()[0], 0));
+    clock = new ManualClock();
+    metricsManager = new MetricsManager();
+    testModel = new MatchmakingManager(metricsManager, mockUserDao, clock, BAND_WIDTH, WIDEN_INTERVAL_MILLIS,
+            MAX_WINDOW, MatchmakingManager.Mode.INLINE, BATCH_SIZE, QUEUE_TIMEOUT_MILLIS);
+  }
+
+  @Test
+  public void shouldMatchWithWaitingUser() throws UserNotFoundException {
+    assertNull(testModel.match("user1"));
+    assertEquals(testModel.match("user2"), "user1");
+    assertNull(testModel.match("user3"));
+    assertEquals(metricsManager.getMetrics().get("matchmaking.matches"), 1L);
+    assertEquals(metricsManager.getMetrics().get("matchmaking.waiting"), 1);
+  }
+
+  @Test
+  public void shouldNotQueueWaitingUserTwice() throws UserNotFoundException {
+    assertNull(testModel.match("user1"));
+    assertNull(testModel.match("user1"));
+
+    assertEquals(testModel.match("user2"), "user1");
+    assertNull(testModel.match("user3"));
+    assertEquals(metricsManager.getMetrics().get("matchmaking.duplicates"), 1L);
+  }
+
+  @Test
+  public void shouldMatchEveryUserOnceUnderContention() throws InterruptedException {
+    int threads = 8;
+    int usersPerThread = 10000;
+    ConcurrentLinkedQueue<String> pairs = new ConcurrentLinkedQueue<>();
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      int thread = t;
+      Thread worker = new Thread(() -> {
+        try {
+          start.await();
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < usersPerThread; i++) {
+          String username = thread + "-" + i;
+          String opponent;
+          try {
+            opponent = testModel.match(username);
+          }
+          catch (UserNotFoundException e) {
+            return;
+          }
+          if (opponent != null) {
+            pairs.add(username);
+            pairs.add(opponent);
+          }
+        }
+      });
+      worker.start();
+      workers.add(worker);
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    Set<String> matched = new HashSet<>(pairs);
+    assertEquals(matched.size(), pairs.size());
+    assertEquals(pairs.size(), threads * usersPerThread);
+    assertTrue(metricsManager.getMetrics().get("matchmaking.waiting").intValue() == 0);
+  }
+
+  @Test
+  public void shouldMatchClosestRank() throws UserNotFoundException {
+    rank("low", 1000);
+    rank("high", 1250);
+    rank("player", 1180);
+    rank("close", 1100);
+    assertNull(testModel.match("low"));
+    assertNull(testModel.match("high"));
+
+    assertEquals(testModel.match("player"), "high");
+    assertEquals(testModel.match("close"), "low");
+  }
+
+  @Test
+  public void shouldNotMatchRankOutsideWindow() throws UserNotFoundException {
+    rank("weak", 1000);
+    rank("strong", 1250);
+    assertNull(testModel.match("weak"));
+
+    assertNull(testModel.match("strong"));
+    assertEquals(metricsManager.getMetrics().get("matchmaking.waiting"), 2);
+  }
+
+  @Test
+  public void shouldWidenWindowWhileWaiting() throws UserNotFoundException {
+    rank("weak", 1000);
+    rank("strong", 1250);
+    assertNull(testModel.match("weak"));
+    clock.advance(2 * WIDEN_INTERVAL_MILLIS);
+
+    assertEquals(testModel.match("strong"), "weak");
+  }
+
+  @Test
+  public void shouldNotWidenWindowBeyondMaximum() throws UserNotFoundException {
+    rank("weak", 1000);
+    rank("master", 2000);
+    assertNull(testModel.match("weak"));
+    clock.advance(100 * WIDEN_INTERVAL_MILLIS);
+
+    assertNull(testModel.match("master"));
+  }
+
+  @Test
+  public void shouldReportTimeToMatch() throws UserNotFoundException {
+    rank("user1", 1000);
+    rank("user2", 1250);
+    assertNull(testModel.match("user1"));
+    clock.advance(2 * WIDEN_INTERVAL_MILLIS);
+
+    assertEquals(testModel.match("user2"), "user1");
+
+    Map<String, Number> metrics = metricsManager.getMetrics();
+    assertEquals(metrics.get("matchmaking.timeToMatchMillis.count"), 2L);
+    assertEquals(metrics.get("matchmaking.timeToMatchMillis.p50"), 0L);
+    assertTrue(metrics.get("matchmaking.timeToMatchMillis.p99").longValue() >= 2 * WIDEN_INTERVAL_MILLIS);
+    assertEquals(metrics.get("matchmaking.waiting"), 0);
+  }
+
+  @Test
+  public void shouldPairBatchToMinimizeRankDifference() throws UserNotFoundException {
+    List<List<String>> ticks = batchMode();
+    rank("a", 1000);
+    rank("b", 1090);
+    rank("c", 1180);
+    rank("d", 1270);
+    for (String username : Arrays.asList("b", "c", "a", "d")) {
+      assertNull(testModel.match(username));
+    }
+
+    testModel.tick();
+
+    assertEquals(ticks.size(), 1);
+    assertEquals(new HashSet<>(ticks.get(0).subList(0, 2)), new HashSet<>(Arrays.asList("c", "d")));
+    assertEquals(new HashSet<>(ticks.get(0).subList(2, 4)), new HashSet<>(Arrays.asList("a", "b")));
+    assertEquals(metricsManager.getMetrics().get("matchmaking.waiting"), 0);
+  }
+
+  @Test
+  public void shouldSkipUserThatLeavesMostUsersUnmatched() throws UserNotFoundException {
+    List<List<String>> ticks = batchMode();
+    rank("a", 1000);
+    rank("b", 1050);
+    rank("c", 1120);
+    for (String username : Arrays.asList("a", "b", "c")) {
+      assertNull(testModel.match(username));
+    }
+
+    testModel.tick();
+
+    assertEquals(new HashSet<>(ticks.get(0)), new HashSet<>(Arrays.asList("a", "b")));
+    assertEquals(metricsManager.getMetrics().get("matchmaking.waiting"), 1);
+  }
+
+  @Test
+  public void shouldKeepUnmatchedUsersAheadOfNewOnes() throws UserNotFoundException {
+    List<List<String>> ticks = batchMode();
+    rank("weak", 1000);
+    rank("strong", 1250);
+    for (String username : Arrays.asList("weak", "strong", "new1", "new2", "new3")) {
+      assertNull(testModel.match(username));
+    }
+
+    testModel.tick();
+    clock.advance(WIDEN_INTERVAL_MILLIS);
+    testModel.tick();
+    clock.advance(WIDEN_INTERVAL_MILLIS);
+    testModel.tick();
+
+    assertEquals(ticks.size(), 2);
+    assertEquals(new HashSet<>(ticks.get(0)), new HashSet<>(Arrays.asList("new1", "new2")));
+    assertEquals(new HashSet<>(ticks.get(1)), new HashSet<>(Arrays.asList("weak", "strong")));
+    assertEquals(metricsManager.getMetrics().get("matchmaking.ticks"), 3L);
+    assertEquals(metricsManager.getMetrics().get("matchmaking.waiting"), 1);
+  }
+
+  @Test
+  public void shouldNotMatchCancelledUser() throws UserNotFoundException {
+    assertNull(testModel.match("user1"));
+
+    assertTrue(testModel.cancel("user1"));
+    assertFalse(testModel.cancel("user1"));
+
+    assertNull(testModel.match("user2"));
+    Map<String, Number> metrics = metricsManager.getMetrics();
+    assertEquals(metrics.get("matchmaking.cancelled"), 1L);
+    assertEquals(metrics.get("matchmaking.waiting"), 1);
+    assertEquals(metrics.get("matchmaking.pendingTimeouts"), 1);
+  }
+
+  @Test
+  public void shouldExpireUsersWaitingTooLong() throws UserNotFoundException {
+    assertNull(testModel.match("user1"));
+    clock.advance(QUEUE_TIMEOUT_MILLIS - 1);
+    testModel.expire();
+    assertEquals(metricsManager.getMetrics().get("matchmaking.expired"), 0L);
+
+    clock.advance(1);
+    testModel.expire();
+
+    assertNull(testModel.match("user2"));
+    assertEquals(testModel.match("user3"), "user2");
+    assertFalse(testModel.cancel("user1"));
+    Map<String, Number> metrics = metricsManager.getMetrics();
+    assertEquals(metrics.get("matchmaking.expired"), 1L);
+    assertEquals(metrics.get("matchmaking.waiting"), 0);
+    assertEquals(metrics.get("matchmaking.pendingTimeouts"), 0);
+  }
+
+  @Test
+  public void shouldLeaveCancelledUsersOutOfTicks() throws UserNotFoundException {
+    List<List<String>> ticks = batchMode();
+    for (String username : Arrays.asList("user1", "user2", "user3")) {
+      assertNull(testModel.match(username));
+    }
+
+    assertTrue(testModel.cancel("user2"));
+    testModel.tick();
+
+    assertEquals(new HashSet<>(ticks.get(0)), new HashSet<>(Arrays.asList("user1", "user3")));
+    assertEquals(metricsManager.getMetrics().get("matchmaking.pendingTimeouts"), 0);
+  }
+
+  private List<List<String>> batchMode() {
+    testModel = new MatchmakingManager(metricsManager, mockUserDao, clock, BAND_WIDTH, WIDEN_INTERVAL_MILLIS,
+            MAX_WINDOW, MatchmakingManager.Mode.BATCH, BATCH_SIZE, QUEUE_TIMEOUT_MILLIS);
+    List<List<String>> ticks = new ArrayList<>();
+    testModel.setListener(ticks::add);
+    return ticks;
+  }
+
+  private void rank(String username, int rank) throws UserNotFoundException {
+    when(mockUserDao.getUser(username)).thenReturn(user(username, rank));
+  }
+
+  private static User user(String username, int rank) {
+    User user = new User(username, "password", "email");
+    user.setRecord(rank, 0, 0, 0);
+    return user;
+  }
+
+  private static class ManualClock extends Clock {
+
+    private long millis;
+
+    void advance(long delta) {
+      millis += delta;
+    }
+
+    @Override
+    public long millis() {
+      return millis;
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+  }
+}
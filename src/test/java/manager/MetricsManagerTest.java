@@ -0,0 +1,72 @@
+package manager;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+public class MetricsManagerTest {
+
+  private MetricsManager testModel;
+
+  @BeforeMethod
+  public void setUp() {
+    testModel = new MetricsManager();
+  }
+
+  @Test
+  public void shouldReturnSameCounterForName() {
+    assertSame(testModel.counter("requests"), testModel.counter("requests"));
+  }
+
+  @Test
+  public void shouldReportCountersAndGauges() {
+    testModel.counter("requests").add(3);
+    testModel.registerGauge("depth", () -> 7);
+
+    Map<String, Number> metrics = testModel.getMetrics();
+
+    assertEquals(metrics.get("requests"), 3L);
+    assertEquals(metrics.get("depth"), 7);
+    assertEquals(new ArrayList<>(metrics.keySet()), Arrays.asList("depth", "requests"));
+  }
+
+  @Test
+  public void shouldReadGaugeOnEverySnapshot() {
+    int[] value = {1};
+    testModel.registerGauge("depth", () -> value[0]);
+    value[0] = 2;
+
+    assertEquals(testModel.getMetrics().get("depth"), 2);
+  }
+
+  @Test
+  public void shouldReportHistogramPercentiles() {
+    Histogram histogram = testModel.histogram("latency");
+    for (int value = 1; value <= 100; value++) {
+      histogram.record(value);
+    }
+
+    Map<String, Number> metrics = testModel.getMetrics();
+
+    assertSame(testModel.histogram("latency"), histogram);
+    assertEquals(metrics.get("latency.count"), 100L);
+    assertEquals(metrics.get("latency.p50"), 51L);
+    assertEquals(metrics.get("latency.p90"), 95L);
+    assertEquals(metrics.get("latency.p99"), 103L);
+  }
+
+  @Test
+  public void shouldKeepHistogramBucketsWithinAnEighthOfTheValue() {
+    for (long value = 0; value < 1 << 20; value = value * 9 / 8 + 1) {
+      long bound = Histogram.upperBound(Histogram.index(value));
+      assertEquals(bound >= value && bound <= value + value / 8, true, "bound " + bound + " for " + value);
+    }
+    assertEquals(Histogram.upperBound(Histogram.index(Long.MAX_VALUE)), Long.MAX_VALUE);
+  }
+}
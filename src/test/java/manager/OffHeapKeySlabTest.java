@@ -0,0 +1,63 @@
+package manager;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class OffHeapKeySlabTest {
+
+  private OffHeapKeySlab testModel;
+
+  @BeforeMethod
+  public void setUp() {
+    testModel = new OffHeapKeySlab(4, 2);
+  }
+
+  @Test
+  public void shouldReadStoredKey() {
+    long handle = testModel.store(new byte[] {1, 2, 3, 4});
+
+    assertEquals(testModel.read(handle), new byte[] {1, 2, 3, 4});
+  }
+
+  @Test
+  public void shouldNotReadFreedKey() {
+    long handle = testModel.store(new byte[] {1, 2, 3, 4});
+    testModel.free(handle);
+
+    assertNull(testModel.read(handle));
+  }
+
+  @Test
+  public void shouldNotReadReusedSlotThroughOldHandle() {
+    long handle = testModel.store(new byte[] {1, 2, 3, 4});
+    testModel.free(handle);
+    long reused = testModel.store(new byte[] {5, 6, 7, 8});
+    testModel.free(handle);
+
+    assertNull(testModel.read(handle));
+    assertEquals(testModel.read(reused), new byte[] {5, 6, 7, 8});
+  }
+
+  @Test
+  public void shouldGrowByChunks() {
+    long first = testModel.store(new byte[] {1, 1, 1, 1});
+    testModel.store(new byte[] {2, 2, 2, 2});
+    long third = testModel.store(new byte[] {3, 3, 3, 3});
+
+    assertEquals(testModel.offHeapBytes(), 16);
+    assertEquals(testModel.read(first), new byte[] {1, 1, 1, 1});
+    assertEquals(testModel.read(third), new byte[] {3, 3, 3, 3});
+  }
+
+  @Test
+  public void shouldReuseFreedSlotsBeforeGrowing() {
+    testModel.free(testModel.store(new byte[] {1, 1, 1, 1}));
+    testModel.store(new byte[] {2, 2, 2, 2});
+    testModel.store(new byte[] {3, 3, 3, 3});
+
+    assertEquals(testModel.offHeapBytes(), 8);
+  }
+}
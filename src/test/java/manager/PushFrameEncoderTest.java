@@ -0,0 +1,101 @@
+package manager;
+
+import model.Game;
+import model.GameStatus;
+import model.Move;
+import model.MoveEncoding;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+public class PushFrameEncoderTest {
+
+  @Test
+  public void shouldEncodeGame() {
+    byte[] frame = encode(events(new Game(300, "ab", "c", GameStatus.DRAW)));
+
+    assertEquals(frame, new byte[] {0, 0, 0, 13, PushFrameEncoder.VERSION, 1, 1, 0, PushFrameEncoder.GAME,
+            (byte) 0xAC, 0x02, 2, 'a', 'b', 1, 'c', (byte) GameStatus.DRAW.ordinal()});
+  }
+
+  @Test
+  public void shouldEncodeMoveAsSquareIndices() {
+    Move move = new Move("e7", "e8q", "Draw");
+    move.setGameId(1);
+    move.setId(2);
+    int packed = MoveEncoding.pack(move);
+
+    byte[] frame = encode(events(move));
+
+    assertEquals(frame, new byte[] {0, 0, 0, 10, PushFrameEncoder.VERSION, 1, 1, 0, PushFrameEncoder.MOVE, 1, 2,
+            (byte) (packed & 0x7F | 0x80), (byte) (packed >>> 7 & 0x7F | 0x80), (byte) (packed >>> 14)});
+  }
+
+  @Test
+  public void shouldEncodeUnpackableMoveAsText() {
+    Move move = new Move("O-O", "", "x");
+
+    byte[] frame = encode(events(move));
+
+    assertEquals(frame, new byte[] {0, 0, 0, 14, PushFrameEncoder.VERSION, 1, 1, 0, PushFrameEncoder.MOVE_TEXT, 0, 0,
+            3, 'O', '-', 'O', 0, 1, 'x'});
+  }
+
+  @Test
+  public void shouldEncodeCookieAsUtf8() {
+    String cookie = "é€😀";
+
+    byte[] frame = encode(events(cookie));
+
+    byte[] expected = new byte[] {0, 0, 0, 15, PushFrameEncoder.VERSION, 1, 1, 0, PushFrameEncoder.GAME_COOKIE, 9,
+            (byte) 0xC3, (byte) 0xA9, (byte) 0xE2, (byte) 0x82, (byte) 0xAC,
+            (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80};
+    assertEquals(frame, expected);
+  }
+
+  @Test
+  public void shouldEncodeSequenceDeltas() {
+    List<PushEvent> events = Arrays.asList(new PushEvent(300, PushEvent.RESET), new PushEvent(301, "a"),
+            new PushEvent(305, "b"));
+
+    byte[] frame = encode(events);
+
+    assertEquals(frame, new byte[] {0, 0, 0, 14, PushFrameEncoder.VERSION, 3, (byte) 0xAC, 0x02,
+            0, PushFrameEncoder.RESET, 1, PushFrameEncoder.GAME_COOKIE, 1, 'a', 4, PushFrameEncoder.GAME_COOKIE, 1, 'b'});
+  }
+
+  @Test
+  public void shouldComputeLengthOfMixedFrame() {
+    List<PushEvent> events = events(new Game(1, "player1", null, GameStatus.PLAYING),
+            new Move("a7", "a8q", "Player 1 Win"), "cookie", "bad\ud800");
+
+    assertEquals(encode(events).length, PushFrameEncoder.frameLength(events));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void shouldRejectUnsupportedEvent() {
+    PushFrameEncoder.eventLength(1);
+  }
+
+  private List<PushEvent> events(Object... data) {
+    List<PushEvent> events = new ArrayList<>();
+    for (int i = 0; i < data.length; i++) {
+      events.add(new PushEvent(i + 1, data[i]));
+    }
+    return events;
+  }
+
+  private byte[] encode(List<PushEvent> events) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+    PushFrameEncoder.encode(events, buffer);
+    buffer.flip();
+    byte[] frame = new byte[buffer.remaining()];
+    buffer.get(frame);
+    return frame;
+  }
+}
@@ -0,0 +1,82 @@
+package manager;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ReplayBufferTest {
+
+  private static final int CAPACITY = 40;
+  private static final long FIRST_SEQUENCE = 1000;
+
+  private ReplayBuffer testModel;
+
+  @BeforeMethod
+  public void setUp() {
+    testModel = new ReplayBuffer(CAPACITY, FIRST_SEQUENCE);
+  }
+
+  @Test
+  public void shouldNumberEventsFromFirstSequence() {
+    assertEquals(testModel.latest(), FIRST_SEQUENCE - 1);
+    assertEquals(testModel.append("a"), FIRST_SEQUENCE);
+    assertEquals(testModel.append("b"), FIRST_SEQUENCE + 1);
+    assertEquals(testModel.latest(), FIRST_SEQUENCE + 1);
+  }
+
+  @Test
+  public void shouldReturnEventsAfterLastSequence() {
+    for (int i = 0; i < 3; i++) {
+      testModel.append("event" + i);
+    }
+
+    List<PushEvent> missed = testModel.since(FIRST_SEQUENCE);
+
+    assertEquals(missed.size(), 2);
+    assertEquals(missed.get(0).sequence, FIRST_SEQUENCE + 1);
+    assertEquals(missed.get(0).data, "event1");
+    assertEquals(missed.get(1).data, "event2");
+    assertTrue(testModel.since(FIRST_SEQUENCE + 2).isEmpty());
+    assertEquals(testModel.since(FIRST_SEQUENCE - 1).size(), 3);
+  }
+
+  @Test
+  public void shouldKeepOrderWhileGrowing() {
+    for (int i = 0; i < CAPACITY; i++) {
+      testModel.append(i);
+    }
+
+    List<PushEvent> missed = testModel.since(FIRST_SEQUENCE - 1);
+
+    assertEquals(missed.size(), CAPACITY);
+    for (int i = 0; i < CAPACITY; i++) {
+      assertEquals(missed.get(i).data, i);
+    }
+  }
+
+  @Test
+  public void shouldOverwriteOldestEventsWhenFull() {
+    for (int i = 0; i < CAPACITY + 5; i++) {
+      testModel.append(i);
+    }
+
+    assertNull(testModel.since(FIRST_SEQUENCE + 3));
+    List<PushEvent> missed = testModel.since(FIRST_SEQUENCE + 4);
+    assertEquals(missed.size(), CAPACITY);
+    assertEquals(missed.get(0).data, 5);
+    assertEquals(missed.get(CAPACITY - 1).data, CAPACITY + 4);
+  }
+
+  @Test
+  public void shouldNotResumeFromUnknownSequence() {
+    testModel.append("a");
+
+    assertNull(testModel.since(FIRST_SEQUENCE + 1));
+    assertNull(testModel.since(0));
+  }
+}
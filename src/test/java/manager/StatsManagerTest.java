@@ -0,0 +1,172 @@
+package manager;
+
+import dao.UserDao;
+import exception.ServerException;
+import exception.user.UserNotFoundException;
+import model.Game;
+import model.GameStatus;
+import model.User;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.time.Clock;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.expectThrows;
+
+public class StatsManagerTest {
+
+  private static final int QUEUE_CAPACITY = 4;
+  private static final int BATCH_SIZE = 3;
+  private static final int K_FACTOR = 32;
+
+  @Mock
+  private UserDao mockUserDao;
+  @Mock
+  private Clock mockClock;
+  @Captor
+  private ArgumentCaptor<Collection<User>> records;
+  private Map<String, User> users;
+  private Answer<Void> updateRecords;
+  private MetricsManager metricsManager;
+  private StatsManager testModel;
+
+  @BeforeMethod
+  @SuppressWarnings("unchecked")
+  public void setUp() throws UserNotFoundException {
+    MockitoAnnotations.initMocks(this);
+    users = new HashMap<>();
+    for (String username : new String[] {"alice", "bob", "carol"}) {
+      users.put(username, new User(username, "password", "email"));
+    }
+    when(mockUserDao.getUser(anyString())).thenAnswer(invocation -> {
+      User user = users.get((String) invocation.getArguments()[0]);
+      if (user == null) {
+        throw new UserNotFoundException("User not found");
+      }
+      return user;
+    });
+    updateRecords = invocation -> {
+      for (User record : (Collection<User>) invocation.getArguments()[0]) {
+        users.put(record.getUsername(), record);
+      }
+      return null;
+    };
+    doAnswer(updateRecords).when(mockUserDao).updateRecords(any());
+    when(mockClock.millis()).thenReturn(1000L);
+    metricsManager = new MetricsManager();
+    testModel = new StatsManager(metricsManager, mockUserDao, mockClock, QUEUE_CAPACITY, BATCH_SIZE, K_FACTOR);
+  }
+
+  @Test
+  public void shouldApplyEloAndCountersForWin() {
+    testModel.gameFinished(new Game(0, "alice", "bob", GameStatus.PLAYER1_WIN));
+
+    assertEquals(testModel.applyQueued(), 1);
+
+    assertRecord("alice", 16, 1, 0, 0);
+    assertRecord("bob", -16, 0, 1, 0);
+    assertEquals(metricsManager.getMetrics().get("stats.games"), 1L);
+  }
+
+  @Test
+  public void shouldApplyGamesOfABatchInOrder() {
+    testModel.gameFinished(new Game(0, "alice", "bob", GameStatus.PLAYER2_WIN));
+    testModel.gameFinished(new Game(1, "alice", "carol", GameStatus.DRAW));
+    testModel.gameFinished(new Game(2, "bob", "carol", GameStatus.PLAYER1_WIN));
+
+    testModel.applyQueued();
+
+    assertRecord("alice", -15, 0, 1, 1);
+    assertRecord("bob", 31, 2, 0, 0);
+    assertRecord("carol", -16, 0, 1, 1);
+    verify(mockUserDao, times(1)).updateRecords(any());
+  }
+
+  @Test
+  public void shouldApplyEachGameOnce() {
+    testModel.gameFinished(new Game(0, "alice", "bob", GameStatus.PLAYER1_WIN));
+    testModel.applyQueued();
+    testModel.gameFinished(new Game(0, "alice", "bob", GameStatus.PLAYER1_WIN));
+    testModel.gameFinished(new Game(0, "alice", "bob", GameStatus.PLAYER1_WIN));
+
+    testModel.applyQueued();
+
+    assertRecord("alice", 16, 1, 0, 0);
+    verify(mockUserDao, times(2)).updateRecords(records.capture());
+    assertEquals(records.getValue().size(), 0);
+    assertEquals(metricsManager.getMetrics().get("stats.duplicates"), 2L);
+  }
+
+  @Test
+  public void shouldRetryBatchWhenRecordsCannotBeWritten() {
+    doThrow(new ServerException()).doAnswer(updateRecords).when(mockUserDao).updateRecords(any());
+    testModel.gameFinished(new Game(0, "alice", "bob", GameStatus.PLAYER1_WIN));
+    testModel.gameFinished(new Game(1, "alice", "bob", GameStatus.DRAW));
+
+    expectThrows(ServerException.class, testModel::applyQueued);
+    assertRecord("alice", 0, 0, 0, 0);
+    assertEquals(metricsManager.getMetrics().get("stats.games"), 0L);
+
+    assertEquals(testModel.applyQueued(), 2);
+    assertRecord("alice", 15, 1, 0, 1);
+    assertRecord("bob", -15, 0, 1, 1);
+    assertEquals(metricsManager.getMetrics().get("stats.games"), 2L);
+    assertEquals(metricsManager.getMetrics().get("stats.duplicates"), 0L);
+    assertEquals(testModel.applyQueued(), 0);
+  }
+
+  @Test
+  public void shouldIgnoreUnfinishedGamesAndMissingUsers() {
+    testModel.gameFinished(new Game(0, "alice", "bob", GameStatus.PLAYING));
+    testModel.gameFinished(new Game(1, "alice", "dave", GameStatus.PLAYER1_WIN));
+
+    assertEquals(testModel.applyQueued(), 1);
+
+    assertRecord("alice", 0, 0, 0, 0);
+    assertEquals(metricsManager.getMetrics().get("stats.games"), 0L);
+  }
+
+  @Test
+  public void shouldDropResultsWhenQueueIsFull() {
+    for (int gameId = 0; gameId <= QUEUE_CAPACITY; gameId++) {
+      testModel.gameFinished(new Game(gameId, "alice", "bob", GameStatus.DRAW));
+    }
+
+    assertEquals(metricsManager.getMetrics().get("stats.dropped"), 1L);
+    assertEquals(metricsManager.getMetrics().get("stats.queued"), QUEUE_CAPACITY);
+  }
+
+  @Test
+  public void shouldReportLagOfOldestUnappliedGame() {
+    testModel.gameFinished(new Game(0, "alice", "bob", GameStatus.DRAW));
+    when(mockClock.millis()).thenReturn(1250L);
+
+    assertEquals(metricsManager.getMetrics().get("stats.lagMillis"), 250L);
+    testModel.applyQueued();
+    assertEquals(metricsManager.getMetrics().get("stats.lagMillis"), 0L);
+  }
+
+  private void assertRecord(String username, int rank, int wins, int loses, int draws) {
+    User user = users.get(username);
+    assertEquals(user.getRank(), rank, username + " rank");
+    assertEquals(user.getWins(), wins, username + " wins");
+    assertEquals(user.getLoses(), loses, username + " loses");
+    assertEquals(user.getDraws(), draws, username + " draws");
+  }
+}
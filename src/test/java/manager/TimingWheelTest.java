@@ -0,0 +1,104 @@
+package manager;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+  private TimingWheel<String> testModel;
+
+  @BeforeMethod
+  public void setUp() {
+    testModel = new TimingWheel<>(10, 8, 1000);
+  }
+
+  @Test
+  public void shouldExpireOnlyTimeoutsWhoseDeadlinePassed() {
+    testModel.schedule("first", 1015);
+    testModel.schedule("second", 1030);
+
+    assertEquals(testModel.advance(1019), Collections.emptyList());
+    assertEquals(testModel.advance(1020), Collections.singletonList("first"));
+    assertEquals(testModel.advance(1040), Collections.singletonList("second"));
+    assertEquals(testModel.size(), 0);
+  }
+
+  @Test
+  public void shouldKeepTimeoutsOfLaterRoundsInTheirSlot() {
+    testModel.schedule("now", 1010);
+    testModel.schedule("later", 1090);
+
+    assertEquals(testModel.advance(1010), Collections.singletonList("now"));
+    assertEquals(testModel.advance(1080), Collections.emptyList());
+    assertEquals(testModel.advance(1090), Collections.singletonList("later"));
+  }
+
+  @Test
+  public void shouldExpireEverythingAfterLongPause() {
+    for (int i = 0; i < 100; i++) {
+      testModel.schedule("timeout" + i, 1000 + i * 7);
+    }
+
+    assertEquals(testModel.advance(1000000).size(), 100);
+    assertEquals(testModel.size(), 0);
+  }
+
+  @Test
+  public void shouldNotExpireCancelledTimeouts() {
+    TimingWheel.Timeout<String> cancelled = testModel.schedule("cancelled", 1020);
+    testModel.schedule("kept", 1020);
+
+    assertTrue(testModel.cancel(cancelled));
+    assertFalse(testModel.cancel(cancelled));
+
+    assertEquals(testModel.advance(1020), Collections.singletonList("kept"));
+    assertEquals(testModel.size(), 0);
+  }
+
+  @Test
+  public void shouldExpirePastDeadlinesOnNextTick() {
+    TimingWheel.Timeout<String> late = testModel.schedule("late", 0);
+    testModel.schedule("later", 500);
+
+    assertEquals(new HashSet<>(testModel.advance(1010)), new HashSet<>(Arrays.asList("late", "later")));
+    assertFalse(testModel.cancel(late));
+  }
+
+  @Test
+  public void shouldExpireTimeoutsScheduledByManyThreadsUnlessCancelled() throws InterruptedException {
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int thread = t;
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          TimingWheel.Timeout<String> timeout = testModel.schedule(thread + "-" + i, 1000 + i);
+          if (i % 2 == 1) {
+            testModel.cancel(timeout);
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(testModel.size(), 2000);
+    List<String> expired = testModel.advance(3000);
+    assertEquals(expired.size(), 2000);
+    assertTrue(expired.stream().allMatch(value -> Integer.parseInt(value.split("-")[1]) % 2 == 0));
+    assertEquals(testModel.size(), 0);
+  }
+}